@@ -1,10 +1,11 @@
 package com.hmdp.config;
 
 import com.hmdp.utils.LoginInterceptor;
+import com.hmdp.utils.LoginTokenCache;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokenManager;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -17,7 +18,10 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class MvcConfig implements WebMvcConfigurer {
 
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginTokenCache loginTokenCache;
+
+    @Autowired
+    private SignedTokenManager signedTokenManager;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -28,12 +32,13 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/voucher/**",
                         "/shop-type/**",
                         "/upload/**",
+                        "/imgs/**",
                         "/blog/hot",
                         "/user/code",
                         "/user/login"
                 ).order(1);
 
         // 刷新token拦截器，拦截所有请求
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(loginTokenCache, signedTokenManager)).addPathPatterns("/**").order(0);
     }
 }
@@ -1,9 +1,13 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 /**
  * <p>
@@ -17,4 +21,30 @@ import org.springframework.web.bind.annotation.RestController;
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    // 发表评论，parentId为空或0表示一级评论，否则是对该一级评论的回复
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    // 按游标分页查询博客的一级评论（新的在前），每条附带前几条回复；lastId为上一页最后一条评论的id，第一页不传
+    @GetMapping("/of/blog")
+    public Result queryComments(
+            @RequestParam("id") Long blogId,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "size", defaultValue = "" + SystemConstants.DEFAULT_PAGE_SIZE) Integer size) {
+        return blogCommentsService.queryComments(blogId, lastId, size);
+    }
+
+    // 按游标分页查询一级评论下的回复（早的在前）；lastId为上一页最后一条回复的id，第一页不传
+    @GetMapping("/of/reply")
+    public Result queryReplies(
+            @RequestParam("id") Long parentId,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "size", defaultValue = "" + SystemConstants.DEFAULT_PAGE_SIZE) Integer size) {
+        return blogCommentsService.queryReplies(parentId, lastId, size);
+    }
 }
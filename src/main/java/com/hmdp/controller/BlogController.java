@@ -10,9 +10,11 @@ import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.UvCounter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import java.util.List;
 
 /**
@@ -30,6 +32,9 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private UvCounter uvCounter;
+
 
     // 保存blog，同时使用推模式把blog推送到所有粉丝的收件箱
     @PostMapping
@@ -64,8 +69,21 @@ public class BlogController {
 
     // 根据id查询博客
     @GetMapping("/{id}")
-    public Result queryBlogById(@PathVariable("id") Long id) {
-        return blogService.queryBlogById(id);
+    public Result queryBlogById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = blogService.queryBlogById(id);
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            // 记录UV，只写本地缓冲区，由后台线程批量写入Redis
+            uvCounter.record(UvCounter.TYPE_BLOG, id, UvCounter.visitorOf(request));
+        }
+        return result;
+    }
+
+    // 查询博客的UV，period：day（今天）、week（本周）、month（本月）
+    @GetMapping("/uv/{id}")
+    public Result queryBlogUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "period", defaultValue = UvCounter.PERIOD_DAY) String period) {
+        return Result.ok(uvCounter.count(UvCounter.TYPE_BLOG, id, period));
     }
 
     // 查询点赞top.5的用户，用于回显
@@ -6,6 +6,7 @@ import com.hmdp.service.IFollowService;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * <p>
@@ -33,8 +34,26 @@ public class FollowController {
         return followService.isFollow(followUserId);
     }
 
+    // 批量查询是否关注，ids=1,2,3
+    @GetMapping("/or/not")
+    public Result isFollows(@RequestParam("ids") List<Long> ids) {
+        return followService.isFollows(ids);
+    }
+
     @GetMapping("/common/{id}")
     public Result followCommons(@PathVariable("id") Long id){
         return followService.followCommons(id);
     }
+
+    // 用户主页的粉丝数、关注数
+    @GetMapping("/count/{id}")
+    public Result followCounts(@PathVariable("id") Long id) {
+        return followService.followCounts(id);
+    }
+
+    // 可能认识的人
+    @GetMapping("/recommend")
+    public Result recommendFollows(@RequestParam(value = "count", defaultValue = "10") Integer count) {
+        return followService.recommendFollows(count);
+    }
 }
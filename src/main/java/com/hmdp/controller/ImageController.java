@@ -0,0 +1,236 @@
+package com.hmdp.controller;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 图片下载接口，替代单独部署的nginx
+ *      Tomcat支持sendfile时交给Tomcat用sendfile发送，文件内容不经过JVM堆；
+ *          不支持时（例如没有开启NIO/APR或者使用了其他容器）退化为固定大小缓冲区的普通拷贝，每个请求占用 IMAGE_COPY_BUFFER_SIZE 字节
+ *      上传、生成缩略图过程中的临时文件（*.tmp）不对外提供下载
+ *      支持 Range（断点续传、分段加载）和 If-None-Match（协商缓存），ETag由文件内容计算，是强校验的
+ */
+@Slf4j
+@RestController
+@RequestMapping("/imgs")
+public class ImageController {
+
+    // Tomcat的sendfile约定：支持时请求中带有该属性，设置文件名和范围后由Tomcat在请求结束后直接发送文件
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // 上传时按内容的SHA-256命名的文件，文件名本身就是内容的hash
+    private static final Pattern CONTENT_HASH_NAME = Pattern.compile("^[0-9a-f]{64}$");
+
+    // 上传、生成缩略图时写入的临时文件后缀
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // 同一个文件名的内容不会变化，允许浏览器长期缓存
+    private static final String CACHE_CONTROL = "public, max-age=31536000";
+
+    // 历史文件（非hash命名）的ETag缓存：文件 -> 计算时的修改时间、大小和ETag
+    private static final Map<Path, FileTag> FILE_TAGS = new ConcurrentHashMap<>();
+
+    /**
+     * 下载图片 GET /imgs/blogs/{d1}/{d2}/{文件名}
+     */
+    @GetMapping("/**")
+    public void downloadImage(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // 1.解析文件路径，不能超出上传目录
+        String path = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
+        Path root = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR).toAbsolutePath().normalize();
+        Path file = root.resolve(StrUtil.removePrefix(StrUtil.removePrefix(path, "/imgs"), "/")).normalize();
+        if (!file.startsWith(root) || file.getFileName().toString().endsWith(TMP_SUFFIX)
+                || !Files.isRegularFile(file)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long length = Files.size(file);
+        // 2.响应头
+        String etag = etagOf(file, length);
+        response.setHeader("ETag", etag);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Cache-Control", CACHE_CONTROL);
+        String contentType = request.getServletContext().getMimeType(file.getFileName().toString());
+        response.setContentType(contentType == null ? "application/octet-stream" : contentType);
+        // 3.协商缓存：ETag没有变化，返回304
+        if (matchesAny(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        // 4.范围请求，If-Range和ETag不一致时说明文件变了，返回完整文件
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] r = parseRange(range, length);
+            if (r != null && r.length == 0) {
+                // 范围不合法
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (r != null) {
+                start = r[0];
+                end = r[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        response.setContentLengthLong(end - start + 1);
+        // 5.发送文件
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // 5.1.交给Tomcat用sendfile发送，数据由内核直接从页缓存写到socket
+            request.setAttribute(SENDFILE_FILENAME, file.toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+        // 5.2.不支持sendfile时，用固定大小的缓冲区拷贝到响应流
+        //   目标不是FileChannel/SocketChannel时 transferTo 内部同样是读到临时缓冲区再写出，这里直接控制缓冲区大小
+        byte[] buffer = new byte[(int) Math.min(SystemConstants.IMAGE_COPY_BUFFER_SIZE, end - start + 1)];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        OutputStream out = response.getOutputStream();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = start;
+            while (position <= end) {
+                byteBuffer.clear();
+                byteBuffer.limit((int) Math.min(buffer.length, end + 1 - position));
+                int n = channel.read(byteBuffer, position);
+                if (n < 0) {
+                    // 文件在发送过程中被截断
+                    break;
+                }
+                out.write(buffer, 0, n);
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * 解析Range请求头，只支持单个范围：bytes=0-99、bytes=100-、bytes=-100
+     * @return {起始位置, 结束位置}；格式不支持（例如多个范围）返回null，按完整文件返回；范围不合法返回空数组
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // 最后n个字节
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(length - suffix, 0);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+            if (start >= length || start > end) {
+                return new long[0];
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // If-None-Match 可以是多个ETag，或者 *；按弱比较，W/前缀忽略
+    static boolean matchesAny(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String tag : header.split(",")) {
+            tag = StrUtil.removePrefix(tag.trim(), "W/");
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 文件的强ETag
+     *      按内容hash命名的文件直接使用文件名，历史文件第一次访问时计算SHA-256并缓存，文件修改后重新计算
+     */
+    private static String etagOf(Path file, long length) throws IOException {
+        String name = file.getFileName().toString();
+        String base = StrUtil.subBefore(name, ".", true);
+        if (CONTENT_HASH_NAME.matcher(base).matches()) {
+            return "\"" + base + "\"";
+        }
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        FileTag tag = FILE_TAGS.get(file);
+        if (tag == null || tag.lastModified != lastModified || tag.length != length) {
+            tag = new FileTag(lastModified, length, "\"" + sha256(file) + "\"");
+            FILE_TAGS.put(file, tag);
+        }
+        return tag.etag;
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexUtil.encodeHexStr(digest.digest());
+    }
+
+    private static class FileTag {
+        private final long lastModified;
+        private final long length;
+        private final String etag;
+
+        FileTag(long lastModified, long length, String etag) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.etag = etag;
+        }
+    }
+}
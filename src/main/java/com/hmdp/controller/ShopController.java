@@ -6,10 +6,15 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.ShopFacetIndex;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvCounter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * 前端控制器
@@ -24,14 +29,35 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvCounter uvCounter;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryById(id);
+    public Result queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = shopService.queryById(id);
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            // 记录UV，只写本地缓冲区，由后台线程批量写入Redis
+            uvCounter.record(UvCounter.TYPE_SHOP, id, UvCounter.visitorOf(request));
+        }
+        return result;
+    }
+
+    /**
+     * 查询商铺的UV
+     * @param id 商铺id
+     * @param period day（今天）、week（本周）、month（本月）
+     * @return 访客数
+     */
+    @GetMapping("/uv/{id}")
+    public Result queryShopUv(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "period", defaultValue = UvCounter.PERIOD_DAY) String period) {
+        return Result.ok(uvCounter.count(UvCounter.TYPE_SHOP, id, period));
     }
 
     /**
@@ -41,10 +67,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库并加入筛选索引
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -83,6 +107,60 @@ public class ShopController {
         return shopService.queryShopByType(typeId, current, x, y);
     }
 
+    /**
+     * 根据多个维度筛选商铺，参数都不是必填的，不传表示该维度不限
+     * @param typeId 商铺类型
+     * @param area 商圈
+     * @param priceBand 价格区间，0:<50  1:50~99  2:100~199  3:200~499  4:>=500
+     * @param scoreBand 评分区间，例如 4 表示 4.0~4.9 分
+     * @param openNow 是否只看营业中的商铺
+     * @param current 页码
+     * @return 商铺列表，total为符合条件的商铺总数
+     */
+    @GetMapping("/of/facet")
+    public Result queryShopByFacet(
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "priceBand", required = false) Integer priceBand,
+            @RequestParam(value = "scoreBand", required = false) Integer scoreBand,
+            @RequestParam(value = "openNow", defaultValue = "false") Boolean openNow,
+            @RequestParam(value = "current", defaultValue = "1") Integer current
+    ) {
+        return shopService.queryShopByFacet(facetFilters(typeId, area, priceBand, scoreBand), openNow, current);
+    }
+
+    /**
+     * 统计当前筛选条件下，各维度每个取值的商铺数量
+     * @return 维度 -> (取值 -> 数量)
+     */
+    @GetMapping("/facet/count")
+    public Result countShopFacets(
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "priceBand", required = false) Integer priceBand,
+            @RequestParam(value = "scoreBand", required = false) Integer scoreBand,
+            @RequestParam(value = "openNow", defaultValue = "false") Boolean openNow
+    ) {
+        return shopService.countShopFacets(facetFilters(typeId, area, priceBand, scoreBand), openNow);
+    }
+
+    private Map<String, String> facetFilters(Long typeId, String area, Integer priceBand, Integer scoreBand) {
+        Map<String, String> filters = new HashMap<>(4);
+        if (typeId != null) {
+            filters.put(ShopFacetIndex.FACET_TYPE, typeId.toString());
+        }
+        if (StrUtil.isNotBlank(area)) {
+            filters.put(ShopFacetIndex.FACET_AREA, area);
+        }
+        if (priceBand != null) {
+            filters.put(ShopFacetIndex.FACET_PRICE, priceBand.toString());
+        }
+        if (scoreBand != null) {
+            filters.put(ShopFacetIndex.FACET_SCORE, scoreBand.toString());
+        }
+        return filters;
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
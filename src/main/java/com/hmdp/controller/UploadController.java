@@ -1,67 +1,232 @@
 package com.hmdp.controller;
 
-import cn.hutool.core.io.FileUtil;
+import cn.hutool.core.util.HexUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.ImageThumbnailer;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
-import java.util.UUID;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static com.hmdp.utils.RedisConstants.LOCK_UPLOAD_KEY;
+import static com.hmdp.utils.RedisConstants.UPLOAD_REF_KEY;
 
 @Slf4j
 @RestController
 @RequestMapping("upload")
 public class UploadController {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private ImageThumbnailer imageThumbnailer;
+
+    // 写入文件时的缓冲区大小
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * 文件上传接口
+     *      边读上传流边写入上传目录下的临时文件，同时计算SHA-256，写完后按内容的hash命名（改名，不复制数据）
+     *      内容相同的图片只保存一份，按上传用户记录引用 upload:ref:{文件名} 用户id -> 次数，
+     *      删除时只能减少自己的引用，所有用户的引用都归零才真正删除文件
      * @param image
-     * @return
+     * @return 文件名 /blogs/{d1}/{d2}/{sha256}.{后缀}
      */
     @PostMapping("blog")
     public Result uploadImage(@RequestParam("file") MultipartFile image) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Result.fail("请先登录");
+        }
+        try (InputStream in = image.getInputStream()) {
+            return Result.ok(storeImage(in, image.getOriginalFilename(), user.getId()));
+        } catch (IOException e) {
+            throw new RuntimeException("文件上传失败", e);
+        }
+    }
+
+    /**
+     * 文件上传接口（请求体就是文件内容）
+     *      multipart上传时容器会先把文件写入自己的临时目录，这个接口直接从请求流写入上传目录，文件只落盘一次
+     * @param filename 原始文件名，用于获取后缀
+     * @return 文件名 /blogs/{d1}/{d2}/{sha256}.{后缀}
+     */
+    @PostMapping("blog/stream")
+    public Result uploadImageStream(@RequestParam("name") String filename, HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Result.fail("请先登录");
+        }
+        try (InputStream in = request.getInputStream()) {
+            return Result.ok(storeImage(in, filename, user.getId()));
+        } catch (IOException e) {
+            throw new RuntimeException("文件上传失败", e);
+        }
+    }
+
+    private String storeImage(InputStream in, String originalFilename, Long userId) throws IOException {
+        // 1.在上传目录中创建临时文件，和最终位置在同一个文件系统，之后改名即可
+        Path root = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR);
+        Path tmpDir = Files.createDirectories(root.resolve("blogs"));
+        Path tmp = Files.createTempFile(tmpDir, "upload-", ".tmp");
         try {
-            // 获取原始文件名称
-            String originalFilename = image.getOriginalFilename();
-            // 生成新文件名
-            String fileName = createNewFileName(originalFilename);
-            // 保存文件
-            image.transferTo(new File(SystemConstants.IMAGE_UPLOAD_DIR, fileName));
+            // 2.写入临时文件，同时计算hash
+            String hash = writeAndHash(in, tmp);
+            // 3.按hash生成文件名
+            String fileName = createNewFileName(originalFilename, hash);
+            // 4.保存文件并增加当前用户的引用
+            saveFile(tmp, root, fileName, userId);
+            // 5.异步生成缩略图
+            imageThumbnailer.submit(fileName);
             // 返回结果
             log.debug("文件上传成功，{}", fileName);
-            return Result.ok(fileName);
-        } catch (IOException e) {
-            throw new RuntimeException("文件上传失败", e);
+            return fileName;
+        } finally {
+            // 已经改名或者内容重复时，删除临时文件
+            Files.deleteIfExists(tmp);
         }
     }
 
-    @GetMapping("/blog/delete")
+    /**
+     * 删除图片：减少当前用户对该文件的一次引用，所有用户的引用都归零才删除文件
+     *      没有引用该文件的用户不能删除，重复调用也只会减少自己的引用，不会删除其他用户仍在使用的文件
+     */
+    @PostMapping("/blog/delete")
     public Result deleteBlogImg(@RequestParam("name") String filename) {
-        File file = new File(SystemConstants.IMAGE_UPLOAD_DIR, filename);
-        if (file.isDirectory()) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return Result.fail("请先登录");
+        }
+        String userId = user.getId().toString();
+        Path root = Paths.get(SystemConstants.IMAGE_UPLOAD_DIR).normalize();
+        Path file = root.resolve(StrUtil.removePrefix(filename, "/")).normalize();
+        if (!file.startsWith(root) || Files.isDirectory(file)) {
             return Result.fail("错误的文件名称");
         }
-        FileUtil.del(file);
+        String fileName = "/" + root.relativize(file).toString().replace('\\', '/');
+        RLock lock = redissonClient.getLock(LOCK_UPLOAD_KEY + fileName);
+        lock.lock();
+        try {
+            String key = UPLOAD_REF_KEY + fileName;
+            // 1.当前用户没有引用该文件，不能删除
+            if (stringRedisTemplate.opsForHash().get(key, userId) == null) {
+                return Result.fail("无权删除该文件");
+            }
+            // 2.减少当前用户的引用，归零时移除该用户
+            Long refs = stringRedisTemplate.opsForHash().increment(key, userId, -1);
+            if (refs == null || refs <= 0) {
+                stringRedisTemplate.opsForHash().delete(key, userId);
+            }
+            // 3.所有用户的引用都没有了才删除文件（hash的最后一个字段删除后key也随之删除）
+            Long owners = stringRedisTemplate.opsForHash().size(key);
+            if (owners == null || owners == 0) {
+                Files.deleteIfExists(file);
+                imageThumbnailer.deleteRenditions(fileName);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("文件删除失败", e);
+        } finally {
+            lock.unlock();
+        }
         return Result.ok();
     }
 
-    private String createNewFileName(String originalFilename) {
-        // 获取后缀
-        String suffix = StrUtil.subAfter(originalFilename, ".", true);
-        // 生成目录
-        String name = UUID.randomUUID().toString();
-        int hash = name.hashCode();
-        int d1 = hash & 0xF;
-        int d2 = (hash >> 4) & 0xF;
-        // 判断目录是否存在
-        File dir = new File(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.format("/blogs/{}/{}", d1, d2));
-        if (!dir.exists()) {
-            dir.mkdirs();
+    /**
+     * 查询图片的缩略图地址，还没有生成的返回原图地址
+     * @param filename 上传接口返回的文件名
+     * @return 宽度 -> 文件名
+     */
+    @GetMapping("/blog/renditions")
+    public Result queryRenditions(@RequestParam("name") String filename) {
+        if (filename.contains("..")) {
+            return Result.fail("错误的文件名称");
         }
-        // 生成文件名
-        return StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, name, suffix);
+        return Result.ok(imageThumbnailer.renditionsOf(filename));
+    }
+
+    // 缩略图任务队列的情况
+    @GetMapping("/blog/thumbnail/stats")
+    public Result queryThumbnailStats() {
+        return Result.ok(imageThumbnailer.stats());
+    }
+
+    /**
+     * 把上传流写入文件，边写边计算SHA-256，数据只经过一个缓冲区
+     * @return 内容的hash（十六进制）
+     */
+    private String writeAndHash(InputStream in, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel dest = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (src.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.array(), 0, buffer.limit());
+                while (buffer.hasRemaining()) {
+                    dest.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return HexUtil.encodeHexStr(digest.digest());
+    }
+
+    /**
+     * 把临时文件移动到最终位置，文件已存在（内容相同）就直接复用，并增加当前用户的引用
+     *      和删除用同一把锁，避免刚判断文件存在、还没增加引用时文件被删除
+     */
+    private void saveFile(Path tmp, Path root, String fileName, Long userId) throws IOException {
+        Path target = root.resolve(fileName.substring(1));
+        RLock lock = redissonClient.getLock(LOCK_UPLOAD_KEY + fileName);
+        lock.lock();
+        try {
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+            stringRedisTemplate.opsForHash().increment(UPLOAD_REF_KEY + fileName, userId.toString(), 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String createNewFileName(String originalFilename, String hash) {
+        // 获取后缀
+        String suffix = StrUtil.nullToEmpty(StrUtil.subAfter(originalFilename, ".", true))
+                .toLowerCase().replaceAll("[^a-z0-9]", "");
+        // 生成目录，按hash的前两位分散到 16 * 16 个目录中
+        int d1 = Character.digit(hash.charAt(0), 16);
+        int d2 = Character.digit(hash.charAt(1), 16);
+        // 生成文件名，同样的内容总是得到同样的文件名；没有后缀时不带"."
+        return suffix.isEmpty()
+                ? StrUtil.format("/blogs/{}/{}/{}", d1, d2, hash)
+                : StrUtil.format("/blogs/{}/{}/{}.{}", d1, d2, hash, suffix);
     }
 }
@@ -1,7 +1,6 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
@@ -9,6 +8,7 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BeanConverter;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -57,7 +57,9 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
+    public Result logout(@RequestHeader("authorization") String token){
+        // 删除token，并通知所有实例删除本地缓存
+        userService.logout(token);
         // 把ThreadLocal中的用户移除，之后的请求会被LoginInterceptor拦截到，跳转到登录页面*
         UserHolder.removeUser();
         return Result.ok();
@@ -92,7 +94,7 @@ public class UserController {
         if (user == null) {
             return Result.ok();
         }
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+        UserDTO userDTO = BeanConverter.toUserDTO(user);
         // 查到了就返回
         return Result.ok(userDTO);
     }
@@ -107,4 +109,22 @@ public class UserController {
         return userService.signCount();
     }
 
+    // 本月签到统计：连续签到、签到天数、最长连续签到
+    @GetMapping("/sign/stats")
+    public Result signStats(){
+        return userService.signStats();
+    }
+
+    // 一年的签到日历，不传year时为今年
+    @GetMapping("/sign/calendar")
+    public Result signCalendar(@RequestParam(value = "year", required = false) Integer year){
+        return userService.signCalendar(year);
+    }
+
+    // 今天的连续签到排行榜
+    @GetMapping("/sign/rank")
+    public Result signRank(@RequestParam(value = "count", defaultValue = "10") Integer count){
+        return userService.signRank(count);
+    }
+
 }
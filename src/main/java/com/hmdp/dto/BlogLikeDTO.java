@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 点赞/取消赞之后的状态
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlogLikeDTO {
+    private Boolean isLike;     // 当前用户是否已点赞
+    private Long liked;         // 最新的点赞数
+}
@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 博客点赞top.5的用户缓存
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BlogLikesDTO {
+    private String top;             // 缓存时点赞集合的前5个成员，用","拼接，成员变化时才需要重新查询用户
+    private List<UserDTO> users;    // 点赞用户，顺序与top一致
+}
@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 用户主页的粉丝数、关注数，来自 tb_user_info 中随关注、取关维护的计数
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FollowCountDTO {
+    private Integer fans;       // 粉丝数
+    private Integer followee;   // 关注的人数
+}
@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一年的签到日历
+ */
+@Data
+public class SignCalendarDTO {
+    private Integer year;
+    private Integer total;                      // 全年签到天数
+    private Integer longestStreak;              // 全年最长连续签到天数，跨月的也算
+    private Map<Integer, List<Integer>> months; // 月份 -> 签到的日期（几号）
+}
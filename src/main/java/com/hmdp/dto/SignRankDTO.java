@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 连续签到排行榜的一项
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SignRankDTO {
+    private UserDTO user;
+    private Integer streak;     // 截止今天的连续签到天数
+}
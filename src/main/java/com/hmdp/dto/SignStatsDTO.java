@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 本月签到统计
+ */
+@Data
+public class SignStatsDTO {
+    private Boolean signedToday;    // 今天是否已签到
+    private Integer streak;         // 截止今天的连续签到天数，可以跨月
+    private Integer monthCount;     // 本月签到天数
+    private Integer longestStreak;  // 本月最长连续签到天数
+    private List<Integer> days;     // 本月签到的日期（几号）
+}
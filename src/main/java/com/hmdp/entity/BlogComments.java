@@ -1,6 +1,7 @@
 package com.hmdp.entity;
 
 import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
 import lombok.Data;
@@ -9,6 +10,7 @@ import lombok.experimental.Accessors;
 
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * <p>
@@ -29,7 +31,7 @@ public class BlogComments implements Serializable {
     /**
      * 主键
      */
-    @TableId(value = "id", type = IdType.AUTO)
+    @TableId(value = "id", type = IdType.INPUT)
     private Long id;
 
     /**
@@ -77,5 +79,28 @@ public class BlogComments implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 评论用户图标
+     */
+    @TableField(exist = false)
+    private String icon;
+
+    /**
+     * 评论用户昵称
+     */
+    @TableField(exist = false)
+    private String name;
+
+    /**
+     * 一级评论下的前几条回复
+     */
+    @TableField(exist = false)
+    private List<BlogComments> replies;
+
+    /**
+     * 一级评论下的回复总数
+     */
+    @TableField(exist = false)
+    private Long replyCount;
 
 }
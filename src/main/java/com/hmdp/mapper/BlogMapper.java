@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    int insertLikeFlushBatch(@Param("batchId") String batchId);
+
+    int incrLiked(@Param("id") Long id, @Param("delta") Long delta);
+
+    int incrComments(@Param("id") Long id, @Param("delta") Long delta);
+
+    int deleteLikeFlushBatchBefore(@Param("time") LocalDateTime time);
 }
@@ -0,0 +1,17 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ *  Mapper 接口
+ * @author Jimmy
+ * @since 2023-06-06
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    int insertIgnoreBatch(@Param("signs") List<Sign> signs);
+}
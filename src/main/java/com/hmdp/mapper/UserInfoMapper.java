@@ -2,6 +2,7 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -13,4 +14,7 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    int incrFans(@Param("userId") Long userId, @Param("delta") int delta);
+
+    int incrFollowee(@Param("userId") Long userId, @Param("delta") int delta);
 }
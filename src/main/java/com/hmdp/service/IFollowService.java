@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.FollowCountDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -18,5 +21,17 @@ public interface IFollowService extends IService<Follow> {
 
     Result isFollow(Long followUserId);
 
+    Result isFollows(List<Long> ids);
+
     Result followCommons(Long id);
+
+    Result recommendFollows(Integer count);
+
+    void ensureFollowsLoaded(Long userId);
+
+    Result followCounts(Long id);
+
+    FollowCountDTO queryFollowCounts(Long userId);
+
+    void ensureFansLoaded(Long userId);
 }
@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 /**
  *  服务类
  *
@@ -17,4 +19,10 @@ public interface IShopService extends IService<Shop> {
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result saveShop(Shop shop);
+
+    Result queryShopByFacet(Map<String, String> filters, Boolean openNow, Integer current);
+
+    Result countShopFacets(Map<String, String> filters, Boolean openNow);
 }
@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -21,7 +24,17 @@ public interface IUserService extends IService<User> {
 
     Result login(LoginFormDTO loginForm, HttpSession session);
 
+    void logout(String token);
+
     Result sign();
 
     Result signCount();
+
+    Result signStats();
+
+    Result signCalendar(Integer year);
+
+    Result signRank(Integer count);
+
+    Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids);
 }
@@ -1,20 +1,519 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
+import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
  *  服务实现类
  * </p>
  *
+ * 评论先写Redis再异步批量写入数据库：
+ *      写：lua脚本生成评论id、加入楼层索引、写入评论缓存、发送到消息队列，一次Redis调用就返回
+ *      存：后台线程从消息队列中批量取出评论，一个事务写入一批，并按博客汇总评论数，每篇博客每批只更新一次 tb_blog.comments
+ *      读：两级楼层，一级评论索引 comments:root:{blogId}、回复索引 comments:reply:{parentId}，分数都是评论id，按id做游标分页
+ *
  * @author Jimmy
  * @since 2023-05-31
  */
+@Slf4j
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    private static final DefaultRedisScript<Long> COMMENT_SCRIPT;
+
+    static {
+        COMMENT_SCRIPT = new DefaultRedisScript<>();
+        COMMENT_SCRIPT.setLocation(new ClassPathResource("comment.lua"));
+        COMMENT_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final String COMMENT_GROUP = "g1";
+
+    // 索引中的占位成员，分数为0，表示索引已经建立（即使还没有任何评论）
+    private static final String INDEX_PLACEHOLDER = "0";
+
+    // 批量写入评论的线程池
+    private static final ExecutorService COMMENT_PERSIST_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    @PostConstruct
+    private void init() {
+        // 评论id计数器不存在时（首次启动或Redis数据丢失），从数据库中最大的id继续，避免主键冲突
+        stringRedisTemplate.opsForValue().setIfAbsent(COMMENT_ID_KEY, String.valueOf(getBaseMapper().selectMaxId()));
+        // 创建评论队列的消费者组（已存在会报错，忽略即可）
+        try {
+            stringRedisTemplate.opsForStream().createGroup(COMMENT_QUEUE, ReadOffset.from("0"), COMMENT_GROUP);
+        } catch (Exception e) {
+            log.debug("评论队列的消费者组已存在");
+        }
+        COMMENT_PERSIST_EXECUTOR.submit(new CommentPersistHandler());
+    }
+
+    /**
+     * 批量写入评论
+     *      每次从消息队列中最多取出 COMMENT_PERSIST_BATCH_SIZE 条，一个事务写入，热门博客在高峰期每批只需要更新一次评论数
+     *      宕机重启后从pending-list中取回没有确认的消息重新写入，评论id是主键，重复写入会被忽略，评论数也不会重复累加
+     */
+    private class CommentPersistHandler implements Runnable {
+        private final String consumer = "c1";
+
+        @Override
+        public void run() {
+            // 启动时先处理上次没有确认的消息
+            handlePendingList();
+            while (true) {
+                try {
+                    // 1.获取消息队列中的评论 XREADGROUP GROUP g1 c1 COUNT 200 BLOCK 2000 STREAMS stream.comments >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(COMMENT_GROUP, consumer),
+                            StreamReadOptions.empty().count(SystemConstants.COMMENT_PERSIST_BATCH_SIZE).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(COMMENT_QUEUE, ReadOffset.lastConsumed())
+                    );
+                    // 2.判断是否有评论
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 3.写入数据库并确认
+                    persist(list);
+                } catch (Exception e) {
+                    log.error("写入评论异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        private void handlePendingList() {
+            while (true) {
+                try {
+                    // 1.获取pending-list中的评论 XREADGROUP GROUP g1 c1 COUNT 200 STREAMS stream.comments 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(COMMENT_GROUP, consumer),
+                            StreamReadOptions.empty().count(SystemConstants.COMMENT_PERSIST_BATCH_SIZE),
+                            StreamOffset.create(COMMENT_QUEUE, ReadOffset.from("0"))
+                    );
+                    // 2.没有未确认的消息，结束循环
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    // 3.写入数据库并确认
+                    persist(list);
+                } catch (Exception e) {
+                    log.error("处理pending-list评论异常", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void persist(List<MapRecord<String, Object, Object>> records) {
+        // 1.解析评论
+        List<BlogComments> comments = records.stream()
+                .map(record -> toComment(record.getValue()))
+                .collect(Collectors.toList());
+        // 2.同一个事务中写入这一批评论，按博客汇总实际写入的条数，每篇博客只更新一次评论数
+        Map<Long, Long> counts = transactionTemplate.execute(status -> {
+            Map<Long, Long> inserted = new HashMap<>();
+            for (BlogComments comment : comments) {
+                if (getBaseMapper().insertIgnore(comment) > 0) {
+                    inserted.merge(comment.getBlogId(), 1L, Long::sum);
+                }
+            }
+            inserted.forEach(blogMapper::incrComments);
+            return inserted;
+        });
+        // 3.事务已经提交，确认消息 XACK 并从队列中删除 XDEL，队列中只保留还没有写入数据库的评论
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(COMMENT_QUEUE, COMMENT_GROUP, ids);
+        stringRedisTemplate.opsForStream().delete(COMMENT_QUEUE, ids);
+        // 4.评论数变化了，删除这些博客的卡片缓存，并更新在热门排行榜中的分数
+        if (counts != null && !counts.isEmpty()) {
+            stringRedisTemplate.delete(counts.keySet().stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList()));
+            blogService.refreshHotScore(counts.keySet());
+        }
+    }
+
+    private static BlogComments toComment(Map<Object, Object> value) {
+        long createTime = Long.parseLong((String) value.get("createTime"));
+        return new BlogComments()
+                .setId(Long.valueOf((String) value.get("id")))
+                .setBlogId(Long.valueOf((String) value.get("blogId")))
+                .setUserId(Long.valueOf((String) value.get("userId")))
+                .setParentId(Long.valueOf((String) value.get("parentId")))
+                .setAnswerId(Long.valueOf((String) value.get("answerId")))
+                .setContent((String) value.get("content"))
+                .setCreateTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(createTime), ZoneId.systemDefault()));
+    }
+
+    /**
+     * 发表评论
+     * @param comment 博客id、评论内容，回复时还需要一级评论的id（parentId）和回复的评论id（answerId，为空表示回复一级评论本身）
+     * @return 评论id
+     */
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1.校验参数
+        String content = StrUtil.trim(comment.getContent());
+        if (comment.getBlogId() == null || StrUtil.isBlank(content)) {
+            return Result.fail("评论内容不能为空！");
+        }
+        if (content.length() > SystemConstants.COMMENT_MAX_LENGTH) {
+            return Result.fail("评论内容过长！");
+        }
+        Long userId = UserHolder.getUser().getId();
+        long parentId = comment.getParentId() == null ? 0 : comment.getParentId();
+        // 一级评论没有回复对象，忽略客户端传入的answerId
+        long answerId = parentId == 0 || comment.getAnswerId() == null || comment.getAnswerId() == 0
+                ? parentId : comment.getAnswerId();
+        // 2.回复：一级评论必须属于这篇博客，被回复的评论必须在它的回复索引中
+        if (parentId != 0) {
+            BlogComments parent = queryCommentBodies(Collections.singletonList(parentId)).get(parentId);
+            if (parent == null || parent.getParentId() != 0 || !comment.getBlogId().equals(parent.getBlogId())) {
+                return Result.fail("回复的评论不存在！");
+            }
+            if (answerId != parentId && !isReplyOf(parentId, answerId)) {
+                return Result.fail("回复的评论不存在！");
+            }
+        }
+        // 3.执行lua脚本，返回评论id
+        String indexKey = parentId == 0 ? COMMENT_ROOT_KEY + comment.getBlogId() : COMMENT_REPLY_KEY + parentId;
+        List<String> args = Arrays.asList(
+                comment.getBlogId().toString(), userId.toString(), String.valueOf(parentId), String.valueOf(answerId),
+                content, String.valueOf(System.currentTimeMillis()),
+                CACHE_COMMENT_KEY, COMMENT_REPLY_KEY, String.valueOf(TimeUnit.HOURS.toSeconds(CACHE_COMMENT_TTL)),
+                String.valueOf(TimeUnit.HOURS.toSeconds(COMMENT_INDEX_TTL)));
+        Long id = executeCommentScript(indexKey, args);
+        if (id != null && id == 0) {
+            // 4.楼层索引不存在，从数据库重建后重试
+            if (parentId == 0) {
+                if (!rebuildIndex(comment.getBlogId())) {
+                    return Result.fail("笔记不存在！");
+                }
+            } else {
+                rebuildReplyIndex(Collections.singletonList(parentId));
+            }
+            id = executeCommentScript(indexKey, args);
+        }
+        if (id == null || id == 0) {
+            return Result.fail("评论失败！");
+        }
+        // 5.返回评论id
+        return Result.ok(id);
+    }
+
+    // ZSCORE comments:reply:{parentId} answerId，回复索引不存在时从数据库重建后再查
+    private boolean isReplyOf(long parentId, long answerId) {
+        String replyKey = COMMENT_REPLY_KEY + parentId;
+        if (stringRedisTemplate.opsForZSet().score(replyKey, String.valueOf(answerId)) != null) {
+            return true;
+        }
+        if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(replyKey))) {
+            return false;
+        }
+        rebuildReplyIndex(Collections.singletonList(parentId));
+        return stringRedisTemplate.opsForZSet().score(replyKey, String.valueOf(answerId)) != null;
+    }
+
+    private Long executeCommentScript(String indexKey, List<String> args) {
+        return stringRedisTemplate.execute(
+                COMMENT_SCRIPT,
+                Arrays.asList(indexKey, COMMENT_ID_KEY, COMMENT_QUEUE),
+                args.toArray()
+        );
+    }
+
+    /**
+     * 按游标分页查询博客的一级评论，新的在前，每条附带最早的几条回复和回复总数
+     *      ZREVRANGEBYSCORE comments:root:{blogId} (lastId 1 LIMIT 0 size，与评论总数无关，翻到多深都是 O(log N)
+     *      每条一级评论的回复和回复数用管道一次查询，评论内容一次MGET，评论用户一次MGET
+     * @param blogId 博客id
+     * @param lastId 上一页最后一条评论的id，为空表示第一页
+     * @param size 每页条数
+     */
+    @Override
+    public Result queryComments(Long blogId, Long lastId, Integer size) {
+        // 1.索引不存在，从数据库重建
+        String rootKey = COMMENT_ROOT_KEY + blogId;
+        if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(rootKey)) && !rebuildIndex(blogId)) {
+            return Result.fail("笔记不存在！");
+        }
+        // 2.按游标取出一页一级评论的id
+        double max = lastId == null ? Double.POSITIVE_INFINITY : lastId - 1;
+        Set<String> idSet = stringRedisTemplate.opsForZSet().reverseRangeByScore(rootKey, 1, max, 0, pageSize(size));
+        if (idSet == null || idSet.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> rootIds = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 3.查询每条一级评论的前几条回复和回复数，回复索引不存在的从数据库重建后再查一次
+        List<Object> previews = queryReplyPreviews(rootIds);
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < rootIds.size(); i++) {
+            if ((Long) previews.get(2 * i + 1) == 0) {
+                missing.add(rootIds.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            rebuildReplyIndex(missing);
+            previews = queryReplyPreviews(rootIds);
+        }
+        // 4.批量查询评论内容
+        List<Long> ids = new ArrayList<>(rootIds);
+        List<List<Long>> replyIds = new ArrayList<>(rootIds.size());
+        for (int i = 0; i < rootIds.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Set<String> replies = (Set<String>) previews.get(2 * i);
+            List<Long> list = replies.stream().map(Long::valueOf).collect(Collectors.toList());
+            replyIds.add(list);
+            ids.addAll(list);
+        }
+        Map<Long, BlogComments> bodies = queryCommentBodies(ids);
+        // 5.批量查询评论用户
+        queryCommentUsers(bodies.values());
+        // 6.组装两级楼层
+        List<BlogComments> comments = new ArrayList<>(rootIds.size());
+        for (int i = 0; i < rootIds.size(); i++) {
+            BlogComments root = bodies.get(rootIds.get(i));
+            if (root == null) {
+                continue;
+            }
+            root.setReplies(replyIds.get(i).stream().map(bodies::get).filter(Objects::nonNull).collect(Collectors.toList()));
+            // 减去占位成员
+            root.setReplyCount(Math.max((Long) previews.get(2 * i + 1) - 1, 0));
+            comments.add(root);
+        }
+        return Result.ok(comments);
+    }
+
+    /**
+     * 按游标分页查询一级评论下的回复，早的在前
+     *      ZRANGEBYSCORE comments:reply:{parentId} (lastId +inf LIMIT 0 size
+     * @param parentId 一级评论的id
+     * @param lastId 上一页最后一条回复的id，为空表示第一页
+     * @param size 每页条数
+     */
+    @Override
+    public Result queryReplies(Long parentId, Long lastId, Integer size) {
+        // 1.索引不存在，确认一级评论存在后从数据库重建
+        String replyKey = COMMENT_REPLY_KEY + parentId;
+        if (!BooleanUtil.isTrue(stringRedisTemplate.hasKey(replyKey))) {
+            BlogComments parent = queryCommentBodies(Collections.singletonList(parentId)).get(parentId);
+            if (parent == null || parent.getParentId() != 0) {
+                return Result.fail("评论不存在！");
+            }
+            rebuildReplyIndex(Collections.singletonList(parentId));
+        }
+        // 2.按游标取出一页回复的id
+        double min = lastId == null ? 1 : lastId + 1;
+        Set<String> idSet = stringRedisTemplate.opsForZSet()
+                .rangeByScore(replyKey, min, Double.POSITIVE_INFINITY, 0, pageSize(size));
+        if (idSet == null || idSet.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+        // 3.批量查询评论内容和评论用户
+        Map<Long, BlogComments> bodies = queryCommentBodies(ids);
+        queryCommentUsers(bodies.values());
+        // 4.按索引中的顺序返回
+        List<BlogComments> replies = ids.stream().map(bodies::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(replies);
+    }
+
+    private static int pageSize(Integer size) {
+        if (size == null || size <= 0) {
+            return SystemConstants.DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(size, SystemConstants.MAX_PAGE_SIZE);
+    }
+
+    // 管道查询每条一级评论的前几条回复和回复数，结果依次为 [回复id集合, 回复数(含占位成员), ...]
+    private List<Object> queryReplyPreviews(List<Long> rootIds) {
+        return stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long rootId : rootIds) {
+                String key = COMMENT_REPLY_KEY + rootId;
+                conn.zRangeByScore(key, 1, Double.POSITIVE_INFINITY, 0, SystemConstants.COMMENT_REPLY_PREVIEW_SIZE);
+                conn.zCard(key);
+            }
+            return null;
+        });
+    }
+
+    // 批量查询评论内容：一次MGET查询评论缓存，未命中的再用一条IN查询数据库
+    private Map<Long, BlogComments> queryCommentBodies(Collection<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_COMMENT_KEY, ids, BlogComments.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(BlogComments::getId, c -> c)),
+                CACHE_COMMENT_TTL, TimeUnit.HOURS);
+    }
+
+    // 批量查询评论用户，用于回显昵称和头像
+    private void queryCommentUsers(Collection<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = comments.stream().map(BlogComments::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.queryUserDTOs(userIds);
+        for (BlogComments comment : comments) {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    /**
+     * 从数据库重建博客的一级评论索引，以及所有一级评论的回复索引
+     * @return 博客是否存在，不存在时不建立索引
+     */
+    private boolean rebuildIndex(Long blogId) {
+        // 1.判断博客是否存在
+        if (blogService.getById(blogId) == null) {
+            return false;
+        }
+        // 2.先取出消息队列中还没有写入数据库的评论，再查询数据库，两者之间写入数据库的评论至少能在一边查到
+        List<BlogComments> comments = queryUnpersisted().stream()
+                .filter(comment -> blogId.equals(comment.getBlogId()))
+                .collect(Collectors.toList());
+        // 3.查询博客的所有评论 select id, parent_id from tb_blog_comments where blog_id = ?
+        comments.addAll(query().select("id", "parent_id").eq("blog_id", blogId).list());
+        // 4.按楼层分组
+        Map<String, List<Long>> indexes = new HashMap<>();
+        List<Long> roots = new ArrayList<>();
+        indexes.put(COMMENT_ROOT_KEY + blogId, roots);
+        for (BlogComments comment : comments) {
+            if (comment.getParentId() == 0) {
+                roots.add(comment.getId());
+                indexes.computeIfAbsent(COMMENT_REPLY_KEY + comment.getId(), k -> new ArrayList<>());
+            } else {
+                indexes.computeIfAbsent(COMMENT_REPLY_KEY + comment.getParentId(), k -> new ArrayList<>()).add(comment.getId());
+            }
+        }
+        // 5.写入索引
+        writeIndexes(indexes);
+        return true;
+    }
+
+    /**
+     * 从数据库重建一级评论的回复索引
+     */
+    private void rebuildReplyIndex(Collection<Long> rootIds) {
+        // 1.消息队列中还没有写入数据库的回复
+        Set<Long> rootIdSet = new HashSet<>(rootIds);
+        List<BlogComments> replies = queryUnpersisted().stream()
+                .filter(comment -> rootIdSet.contains(comment.getParentId()))
+                .collect(Collectors.toList());
+        // 2.查询回复 select id, parent_id from tb_blog_comments where parent_id in (...)
+        replies.addAll(query().select("id", "parent_id").in("parent_id", rootIds).list());
+        // 3.按一级评论分组，没有回复的也要建立索引
+        Map<String, List<Long>> indexes = new HashMap<>();
+        for (Long rootId : rootIds) {
+            indexes.put(COMMENT_REPLY_KEY + rootId, new ArrayList<>());
+        }
+        for (BlogComments reply : replies) {
+            indexes.get(COMMENT_REPLY_KEY + reply.getParentId()).add(reply.getId());
+        }
+        // 4.写入索引
+        writeIndexes(indexes);
+    }
+
+    /**
+     * 消息队列中还没有写入数据库的评论（未确认的和还没有被消费的）
+     *      从pending-list中最早的消息开始，没有pending的消息时从消费者组最后读取的位置之后开始
+     *      正常情况下只有一两批，消费者宕机时会随积压增多，这时重建索引也需要这些评论
+     */
+    private List<BlogComments> queryUnpersisted() {
+        Range<String> range;
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(COMMENT_QUEUE, COMMENT_GROUP);
+        if (pending != null && pending.getTotalPendingMessages() > 0) {
+            range = Range.rightUnbounded(Range.Bound.inclusive(pending.minMessageId()));
+        } else {
+            String lastDeliveredId = stringRedisTemplate.opsForStream().groups(COMMENT_QUEUE).stream()
+                    .filter(group -> COMMENT_GROUP.equals(group.groupName()))
+                    .map(StreamInfo.XInfoGroup::lastDeliveredId)
+                    .findFirst().orElse(null);
+            range = lastDeliveredId == null
+                    ? Range.unbounded()
+                    : Range.rightUnbounded(Range.Bound.exclusive(lastDeliveredId));
+        }
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(COMMENT_QUEUE, range);
+        if (records == null || records.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return records.stream().map(record -> toComment(record.getValue())).collect(Collectors.toList());
+    }
+
+    // 管道批量写入索引，每个索引都带上占位成员并设置有效期；ZADD是幂等的，并发重建也不会出错
+    private void writeIndexes(Map<String, List<Long>> indexes) {
+        long ttl = TimeUnit.HOURS.toSeconds(COMMENT_INDEX_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<String, List<Long>> entry : indexes.entrySet()) {
+                conn.zAdd(entry.getKey(), 0, INDEX_PLACEHOLDER);
+                for (Long id : entry.getValue()) {
+                    conn.zAdd(entry.getKey(), id, id.toString());
+                }
+                conn.expire(entry.getKey(), ttl);
+            }
+            return null;
+        });
+    }
 }
@@ -1,30 +1,49 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.BlogLikeDTO;
+import com.hmdp.dto.BlogLikesDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -37,6 +56,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author Jimmy
  * @since 2023-06-06
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
@@ -49,22 +69,261 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    // 关注页滚动分页每页的笔记数
+    @Value("${hmdp.feed.page-size:2}")
+    private int feedPageSize;
+
+    private static final DefaultRedisScript<List<Long>> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> LIKE_FLUSH_SCRIPT;
+    private static final DefaultRedisScript<List<Object>> FANS_SCAN_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(listType());
+        LIKE_FLUSH_SCRIPT = new DefaultRedisScript<>();
+        LIKE_FLUSH_SCRIPT.setLocation(new ClassPathResource("like_flush.lua"));
+        LIKE_FLUSH_SCRIPT.setResultType(Long.class);
+        FANS_SCAN_SCRIPT = new DefaultRedisScript<>();
+        FANS_SCAN_SCRIPT.setLocation(new ClassPathResource("fans_scan.lua"));
+        FANS_SCAN_SCRIPT.setResultType(listType());
+    }
+
+    // 脚本返回多个值时结果类型只能写 List.class，在这里转换成带元素类型的List
+    @SuppressWarnings("unchecked")
+    private static <T> Class<List<T>> listType() {
+        return (Class<List<T>>) (Class<?>) List.class;
+    }
+
+    // 批次号在hash中的字段名
+    private static final String LIKE_FLUSH_BATCH_FIELD = "_batch";
+
+    // 博客后台定时任务的线程池：回写点赞增量、重建热门排行榜、清除不活跃用户的收件箱
+    private static final ScheduledExecutorService BLOG_TASK_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    private static final String FEED_FANOUT_GROUP = "g1";
+
+    // 推送笔记到粉丝收件箱的线程池
+    private static final ExecutorService FEED_FANOUT_EXECUTOR =
+            Executors.newFixedThreadPool(SystemConstants.FEED_FANOUT_CONCURRENCY);
+
+    @PostConstruct
+    private void init() {
+        BLOG_TASK_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                flushLikeDelta();
+            } catch (Exception e) {
+                // 回写失败批次会保留在Redis中，下一轮继续
+                log.error("回写点赞数异常", e);
+            }
+        }, BLOG_LIKED_FLUSH_INTERVAL, BLOG_LIKED_FLUSH_INTERVAL, TimeUnit.SECONDS);
+        // 启动时排行榜不存在就立即重建，之后定期重建（重新归一化分数、淘汰过期的博客）
+        long initialDelay = BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY)) ? BLOG_HOT_REBUILD_INTERVAL : 0;
+        BLOG_TASK_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                rebuildHotRank();
+            } catch (Exception e) {
+                log.error("重建热门博客排行榜异常", e);
+            }
+        }, initialDelay, BLOG_HOT_REBUILD_INTERVAL, TimeUnit.HOURS);
+        BLOG_TASK_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                evictInactiveInbox();
+            } catch (Exception e) {
+                log.error("清除不活跃用户的收件箱异常", e);
+            }
+        }, FEED_EVICT_INTERVAL, FEED_EVICT_INTERVAL, TimeUnit.HOURS);
+        // 创建推送队列的消费者组（已存在会报错，忽略即可）
+        try {
+            stringRedisTemplate.opsForStream().createGroup(FEED_FANOUT_QUEUE, ReadOffset.from("0"), FEED_FANOUT_GROUP);
+        } catch (Exception e) {
+            log.debug("推送队列的消费者组已存在");
+        }
+        // 固定数量的推送线程，限制推送的并发度，避免大V发帖时挤占其他业务
+        for (int i = 0; i < SystemConstants.FEED_FANOUT_CONCURRENCY; i++) {
+            FEED_FANOUT_EXECUTOR.submit(new FeedFanoutHandler("c" + i));
+        }
+    }
+
     /**
-     * 分页查询
+     * 推送笔记到粉丝收件箱
+     *      从消息队列 stream.feed 中获取推送任务，用SSCAN分批读取作者的粉丝集合 fans:{authorId}，每批用管道一次性发送所有的ZADD
+     *      每推送完一批，把SSCAN游标记录到 feed:fanout:progress，宕机重启后从pending-list中取回任务，从记录的游标继续推送
+     *      ZADD的分数是发帖时间，少量重复推送（最后一批）也不会产生重复数据
+     */
+    private class FeedFanoutHandler implements Runnable {
+        private final String consumer;
+
+        FeedFanoutHandler(String consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            // 启动时先处理上次没有完成的任务
+            handlePendingList();
+            while (true) {
+                try {
+                    // 1.获取消息队列中的推送任务 XREADGROUP GROUP g1 c0 COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FEED_FANOUT_GROUP, consumer),
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_FANOUT_QUEUE, ReadOffset.lastConsumed())
+                    );
+                    // 2.判断是否有任务
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 3.推送并确认
+                    fanout(list.get(0));
+                } catch (Exception e) {
+                    log.error("推送笔记异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        private void handlePendingList() {
+            while (true) {
+                try {
+                    // 1.获取pending-list中的推送任务 XREADGROUP GROUP g1 c0 COUNT 1 STREAMS stream.feed 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(FEED_FANOUT_GROUP, consumer),
+                            StreamReadOptions.empty().count(1),
+                            StreamOffset.create(FEED_FANOUT_QUEUE, ReadOffset.from("0"))
+                    );
+                    // 2.没有未完成的任务，结束循环
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    // 3.重新推送并确认
+                    fanout(list.get(0));
+                } catch (Exception e) {
+                    log.error("处理pending-list推送任务异常", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private List<String> filterActive(List<String> fans) {
+            // 管道批量查询粉丝最后一次访问关注页的时间 ZSCORE feed:active userId
+            List<Object> lastVisits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String fan : fans) {
+                    conn.zScore(FEED_ACTIVE_KEY, fan);
+                }
+                return null;
+            });
+            long activeAfter = inactiveBefore();
+            List<String> actives = new ArrayList<>(fans.size());
+            for (int i = 0; i < fans.size(); i++) {
+                Object lastVisit = lastVisits.get(i);
+                if (lastVisit != null && (Double) lastVisit >= activeAfter) {
+                    actives.add(fans.get(i));
+                }
+            }
+            return actives;
+        }
+
+        private void fanout(MapRecord<String, Object, Object> record) {
+            Map<Object, Object> value = record.getValue();
+            String blogId = (String) value.get("blogId");
+            Long authorId = Long.valueOf((String) value.get("userId"));
+            double time = Double.parseDouble((String) value.get("time"));
+            // 1.确保粉丝集合已经加载
+            followService.ensureFansLoaded(authorId);
+            // 2.读取推送进度（上次中断时的SSCAN游标），没有进度从头开始
+            Object progress = stringRedisTemplate.opsForHash().get(FEED_FANOUT_PROGRESS_KEY, blogId);
+            String cursor = progress == null ? "0" : (String) progress;
+            do {
+                // 3.从游标继续 SSCAN fans:{authorId}，推送一批
+                List<Object> result = stringRedisTemplate.execute(FANS_SCAN_SCRIPT,
+                        Collections.singletonList(FANS_KEY + authorId),
+                        cursor, String.valueOf(SystemConstants.FEED_FANOUT_BATCH_SIZE));
+                if (result == null || result.size() < 2) {
+                    break;
+                }
+                cursor = (String) result.get(0);
+                List<String> fans = new ArrayList<>(((List<?>) result.get(1)).size());
+                for (Object fan : (List<?>) result.get(1)) {
+                    if (!FOLLOWS_LOADED.equals(fan)) {
+                        fans.add((String) fan);
+                    }
+                }
+                if (!fans.isEmpty()) {
+                    pushToInboxes(filterActive(fans), blogId, time);
+                }
+                // 4.记录进度，宕机重启后从这个游标继续，不会从头重新推送
+                if (!"0".equals(cursor)) {
+                    stringRedisTemplate.opsForHash().put(FEED_FANOUT_PROGRESS_KEY, blogId, cursor);
+                }
+            } while (!"0".equals(cursor));
+            // 5.推送完成，确认消息 XACK 并从队列中删除 XDEL，清除进度
+            stringRedisTemplate.opsForStream().acknowledge(FEED_FANOUT_QUEUE, FEED_FANOUT_GROUP, record.getId());
+            stringRedisTemplate.opsForStream().delete(FEED_FANOUT_QUEUE, record.getId());
+            stringRedisTemplate.opsForHash().delete(FEED_FANOUT_PROGRESS_KEY, blogId);
+        }
+
+        // 只推送给活跃的粉丝，不活跃的粉丝没有收件箱，下次访问时再从数据库重建
+        //   管道批量推送到粉丝的收件箱，并只保留最新的 FEED_INBOX_MAX_SIZE 条
+        private void pushToInboxes(List<String> actives, String blogId, double time) {
+            if (actives.isEmpty()) {
+                return;
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (String fan : actives) {
+                    String key = FEED_KEY + fan;
+                    conn.zAdd(key, time, blogId);
+                    conn.zRemRange(key, 0, -SystemConstants.FEED_INBOX_MAX_SIZE - 1);
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 分页查询热门博客
+     * 从Redis的热门排行榜 blog:hot 中按分数倒序取出当前页的博客id，再按主键查询，不需要对整张表排序
      */
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 1.从排行榜中取出当前页的博客id  ZREVRANGE blog:hot start end
+        long start = (long) (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> idSet = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        List<Blog> records;
+        if (idSet == null || idSet.isEmpty()) {
+            // 2.排行榜存在，说明已经翻到了末尾
+            if (BooleanUtil.isTrue(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+                return Result.ok(Collections.emptyList());
+            }
+            // 排行榜还没有建立，退化为按点赞数查询数据库
+            records = query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE))
+                    .getRecords();
+            queryBlogUsers(records);
+        } else {
+            // 3.批量查询博客卡片（已经带有作者信息），保持排行榜中的顺序
+            records = queryBlogCards(idSet.stream().map(Long::valueOf).collect(Collectors.toList()));
+        }
+        // 4.批量查询是否点赞
+        isBlogsLiked(records);
         return Result.ok(records);
     }
 
@@ -75,66 +334,281 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
-        // 1.查询blog
-        Blog blog = getById(id);
+        // 1.查询blog（已经带有作者信息），逻辑过期的缓存，过期后由后台线程重建
+        Blog blog = cacheClient.queryWithLogicalExpireOrLoad(
+                CACHE_BLOG_DETAIL_KEY, id, Blog.class, this::loadBlogDetail, CACHE_BLOG_DETAIL_TTL, TimeUnit.MINUTES);
         if (blog == null) {
             return Result.fail("笔记不存在！");
         }
-        // 2.查询发布该blog的用户，用于数据回显
-        queryBlogUser(blog);
-        // 3.查询blog是否被点赞
-        isBlogLiked(blog);
+        // 2.查询blog是否被点赞以及最新的点赞数，每次请求都不同，不放在缓存中
+        queryLikeState(blog);
         return Result.ok(blog);
     }
 
+    // 查询blog以及发布该blog的用户，用于详情页缓存
+    private Blog loadBlogDetail(Long id) {
+        Blog blog = getById(id);
+        if (blog == null) {
+            return null;
+        }
+        queryBlogUser(blog);
+        return blog;
+    }
+
     /**
-     * 查询当前用户对某篇博客是否点赞
+     * 查询当前用户是否点赞，以及Redis中最新的点赞数（数据库中的点赞数是批量回写的，会稍有延迟），用管道一次发送
      * @param blog
      */
-    private void isBlogLiked(Blog blog) {
+    private void queryLikeState(Blog blog) {
+        UserDTO user = UserHolder.getUser();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.get(BLOG_LIKE_COUNT_KEY + blog.getId());
+            if (user != null) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), user.getId().toString());
+            }
+            return null;
+        });
+        Object count = results.get(0);
+        if (count != null) {
+            blog.setLiked(Integer.valueOf((String) count));
+        }
+        if (user != null) {
+            blog.setIsLike(results.get(1) != null);
+        }
+    }
+
+    /**
+     * 批量查询当前用户对一页博客是否点赞
+     * 用管道一次性发送所有的ZSCORE，无论一页有多少篇博客都只需要一次网络往返
+     * @param blogs 当前页的博客
+     */
+    private void isBlogsLiked(List<Blog> blogs) {
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
-        if (user == null) {
+        if (user == null || blogs.isEmpty()) {
             // 用户未登录，无需查询是否点赞
             return;
         }
-        Long userId = user.getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = "blog:liked:" + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        // 2.管道批量查询，第i位表示第i篇博客是否被点赞
+        BitSet liked = queryLikedBits(blogs, user.getId().toString());
+        // 3.回填到博客中
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(liked.get(i));
+        }
+    }
+
+    private BitSet queryLikedBits(List<Blog> blogs, String userId) {
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        BitSet liked = new BitSet(blogs.size());
+        for (int i = 0; i < scores.size(); i++) {
+            if (scores.get(i) != null) {
+                liked.set(i);
+            }
+        }
+        return liked;
     }
 
     /**
      * 点赞/取消赞
+     * 判断是否点赞、修改点赞集合、修改点赞计数、记录待回写的增量全部在一个lua脚本中完成，一次Redis调用且不会并发重复计数
+     * 数据库中的点赞数由后台线程按批次回写（write-behind），避免热门博客的同一行被频繁加行锁
      * @param id
-     * @return
+     * @return 点赞后的状态和最新的点赞数
      */
     @Override
     public Result likeBlog(Long id) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if (score == null) {
-            // 3.如果未点赞，可以点赞
-            // 3.1.数据库点赞数 + 1
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            // 3.2.保存用户到Redis的set集合  zadd key value score
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+        // 2.执行lua脚本，切换点赞状态，返回 {是否点赞, 点赞数}
+        List<Long> result = executeLike(id, userId, "");
+        if (result != null && result.size() == 1 && result.get(0) == -1) {
+            // 2.1.点赞计数器不存在，查询数据库中的点赞数，用来初始化计数器后重试
+            Blog blog = query().select("liked").eq("id", id).one();
+            if (blog == null) {
+                return Result.fail("博客不存在");
             }
-        } else {
-            // 4.如果已点赞，取消点赞
-            // 4.1.数据库点赞数 -1
-            boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
-            // 4.2.把用户从Redis的set集合移除
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+            result = executeLike(id, userId, String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked()));
+        }
+        if (result == null || result.size() < 2) {
+            return Result.fail("点赞失败");
+        }
+        // 3.返回最新状态
+        return Result.ok(new BlogLikeDTO(result.get(0) == 1, result.get(1)));
+    }
+
+    private List<Long> executeLike(Long id, Long userId, String dbLiked) {
+        return stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKE_COUNT_KEY + id, BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY),
+                id.toString(), userId.toString(), String.valueOf(System.currentTimeMillis()), dbLiked
+        );
+    }
+
+    /**
+     * 把Redis中累计的点赞增量批量回写到数据库
+     *      1.lua脚本把增量hash原子地改名为“回写中”的批次，并写入批次号，新的点赞累加到新的hash上
+     *      2.在同一个事务中：插入批次号 + 逐个博客 liked = liked + delta
+     *        批次号是主键，如果已经存在（上次提交了事务但没来得及删除Redis中的批次就宕机了），说明回写过了，直接跳过
+     *      3.事务提交后删除Redis中的批次
+     *      任何一步宕机，重启后都会从“回写中”的批次继续，所以增量既不会丢，也不会重复回写
+     */
+    private void flushLikeDelta() {
+        // 多实例部署时只需要一个实例回写
+        RLock lock = redissonClient.getLock(LOCK_BLOG_LIKED_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1.切出一个批次
+            Long hasBatch = stringRedisTemplate.execute(
+                    LIKE_FLUSH_SCRIPT,
+                    Arrays.asList(BLOG_LIKED_DELTA_KEY, BLOG_LIKED_FLUSHING_KEY),
+                    UUID.randomUUID().toString(true)
+            );
+            if (hasBatch == null || hasBatch == 0) {
+                return;
+            }
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(BLOG_LIKED_FLUSHING_KEY);
+            String batchId = (String) entries.remove(LIKE_FLUSH_BATCH_FIELD);
+            if (batchId == null) {
+                // 理论上不会出现，批次号和改名是原子写入的
+                log.error("点赞增量批次缺少批次号，丢弃该批次：{}", entries);
+                stringRedisTemplate.delete(BLOG_LIKED_FLUSHING_KEY);
+                return;
+            }
+            // 2.同一个事务中写入批次号和点赞数
+            transactionTemplate.executeWithoutResult(status -> {
+                if (getBaseMapper().insertLikeFlushBatch(batchId) == 0) {
+                    log.warn("点赞增量批次{}已回写过，跳过", batchId);
+                    return;
+                }
+                for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+                    long delta = Long.parseLong((String) entry.getValue());
+                    if (delta != 0) {
+                        getBaseMapper().incrLiked(Long.valueOf((String) entry.getKey()), delta);
+                    }
+                }
+            });
+            // 3.回写成功，删除批次
+            stringRedisTemplate.delete(BLOG_LIKED_FLUSHING_KEY);
+            // 4.点赞数变化了，删除这些博客的卡片缓存，并更新在热门排行榜中的分数
+            List<Long> blogIds = entries.keySet().stream()
+                    .map(k -> Long.valueOf((String) k))
+                    .collect(Collectors.toList());
+            stringRedisTemplate.delete(blogIds.stream().map(id -> CACHE_BLOG_KEY + id).collect(Collectors.toList()));
+            refreshHotScore(blogIds);
+            // 5.清理过期的批次记录，只用于防止重复回写，保留一天足够
+            getBaseMapper().deleteLikeFlushBatchBefore(LocalDateTime.now().minusDays(1));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 更新博客在热门排行榜中的分数，点赞数、评论数变化后调用
+     *      分数 = log10(点赞数 + 2 * 评论数) + (发布时间 - 基准时间) / 衰减周期
+     *      越新的博客基础分越高，老博客需要成倍的互动量才能排在新博客前面，从而实现热度随时间衰减
+     *      已经超出统计窗口的博客不再加入排行榜
+     */
+    @Override
+    public void refreshHotScore(Collection<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+        String epochStr = stringRedisTemplate.opsForValue().get(BLOG_HOT_EPOCH_KEY);
+        if (epochStr == null) {
+            // 排行榜还没有建立，等待重建任务
+            return;
+        }
+        long epoch = Long.parseLong(epochStr);
+        // 窗口之外的博客分数中的时间项是负数，排名靠后，超出上限时会被下面的裁剪淘汰
+        List<Blog> blogs = query()
+                .select("id", "liked", "comments", "create_time")
+                .in("id", ids)
+                .list();
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = blogs.stream()
+                .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(), hotScore(blog, epoch)))
+                .collect(Collectors.toSet());
+        // 写入后只保留分数最高的 BLOG_HOT_MAX_SIZE 篇，两次重建之间排行榜也不会无限增长
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                conn.zAdd(BLOG_HOT_KEY, tuple.getScore(), tuple.getValue());
+            }
+            conn.zRemRange(BLOG_HOT_KEY, 0, -SystemConstants.BLOG_HOT_MAX_SIZE - 1);
+            return null;
+        });
+    }
+
+    /**
+     * 重建热门排行榜
+     *      分数中的时间项会随时间一直增大，定期把基准时间移动到统计窗口的起点重新计算，保证分数的精度，同时淘汰窗口之外的博客
+     *      除了窗口内的博客，总是加入点赞数最多的 BLOG_HOT_MAX_SIZE 篇作为基础集合：
+     *          一段时间没有新博客时排行榜不会变空，有了第一篇新博客后也不会只剩这一篇
+     *      先写入临时key，再RENAME替换，重建过程中不影响读取
+     */
+    private void rebuildHotRank() {
+        RLock lock = redissonClient.getLock(LOCK_BLOG_HOT_REBUILD_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            LocalDateTime windowStart = LocalDateTime.now().minusDays(SystemConstants.BLOG_HOT_WINDOW_DAYS);
+            long epoch = windowStart.toEpochSecond(ZoneOffset.UTC);
+            // 1.查询统计窗口内的博客，以及所有博客中点赞数最多的 BLOG_HOT_MAX_SIZE 篇，只查计算分数需要的字段
+            Map<Long, Blog> blogMap = new HashMap<>();
+            query()
+                    .select("id", "liked", "comments", "create_time")
+                    .orderByDesc("liked")
+                    .last("LIMIT " + SystemConstants.BLOG_HOT_MAX_SIZE)
+                    .list()
+                    .forEach(blog -> blogMap.put(blog.getId(), blog));
+            query()
+                    .select("id", "liked", "comments", "create_time")
+                    .ge("create_time", windowStart)
+                    .list()
+                    .forEach(blog -> blogMap.put(blog.getId(), blog));
+            Collection<Blog> blogs = blogMap.values();
+            // 2.写入临时key
+            String tmpKey = BLOG_HOT_KEY + ":tmp";
+            stringRedisTemplate.delete(tmpKey);
+            if (!blogs.isEmpty()) {
+                Set<ZSetOperations.TypedTuple<String>> tuples = blogs.stream()
+                        .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(), hotScore(blog, epoch)))
+                        .collect(Collectors.toSet());
+                stringRedisTemplate.opsForZSet().add(tmpKey, tuples);
+                // 只保留分数最高的 BLOG_HOT_MAX_SIZE 篇
+                stringRedisTemplate.opsForZSet().removeRange(tmpKey, 0, -SystemConstants.BLOG_HOT_MAX_SIZE - 1);
             }
+            // 3.先更新基准时间，再替换排行榜
+            stringRedisTemplate.opsForValue().set(BLOG_HOT_EPOCH_KEY, String.valueOf(epoch));
+            if (blogs.isEmpty()) {
+                stringRedisTemplate.delete(BLOG_HOT_KEY);
+            } else {
+                stringRedisTemplate.rename(tmpKey, BLOG_HOT_KEY);
+            }
+            log.debug("热门博客排行榜重建完成，博客数量：{}", blogs.size());
+        } finally {
+            lock.unlock();
         }
-        return Result.ok();
+    }
+
+    private static double hotScore(Blog blog, long epoch) {
+        long liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        long comments = blog.getComments() == null ? 0 : blog.getComments();
+        double interaction = Math.log10(Math.max(liked + 2 * comments, 1));
+        long age = blog.getCreateTime().toEpochSecond(ZoneOffset.UTC) - epoch;
+        return interaction + (double) age / SystemConstants.BLOG_HOT_DECAY_SECONDS;
     }
 
     /**
@@ -144,25 +618,43 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogLikes(Long id) {
-        String key = BLOG_LIKED_KEY + id;
         // 1.查询top5的点赞用户 zrange key 0 4
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
+        Set<String> top5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
         if (top5 == null || top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
+        // 2.查询缓存的点赞用户（逻辑过期）
+        String top = String.join(",", top5);
+        BlogLikesDTO likes = cacheClient.queryWithLogicalExpireOrLoad(
+                CACHE_BLOG_LIKES_KEY, id, BlogLikesDTO.class, this::loadBlogLikes, CACHE_BLOG_LIKES_TTL, TimeUnit.MINUTES);
+        // 3.前5个点赞用户变化了，重新查询用户并更新缓存
+        if (likes == null || !top.equals(likes.getTop())) {
+            likes = loadBlogLikes(id);
+            if (likes == null) {
+                return Result.ok(Collections.emptyList());
+            }
+            cacheClient.setWithLogicalExpire(CACHE_BLOG_LIKES_KEY + id, likes, CACHE_BLOG_LIKES_TTL, TimeUnit.MINUTES);
+        }
+        // 4.返回
+        return Result.ok(likes.getUsers());
+    }
+
+    // 查询点赞top.5的用户，用于点赞用户缓存
+    private BlogLikesDTO loadBlogLikes(Long id) {
+        // 1.查询top5的点赞用户 zrange key 0 4
+        Set<String> top5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+        if (top5 == null || top5.isEmpty()) {
+            return null;
+        }
         // 2.解析出其中的用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);      // 自动将ids列表拼接成字符串，使用","分隔
-        // 3.根据用户id查询用户 WHERE id IN ( 5 , 1 ) ORDER BY FIELD(id, 5, 1)
-        //                      -->  如果只是在sql中使用IN而不加order by，id是主键索引，底层优化先查的1，顺序就乱了
-        List<UserDTO> userDTOS = userService.query()
-                // .last() 自动在最后一条sql语句之后拼接
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+        // 3.批量查询用户（走用户缓存），按点赞顺序排列
+        Map<Long, UserDTO> users = queryUsers(ids);
+        List<UserDTO> userDTOS = ids.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
-        // 4.返回
-        return Result.ok(userDTOS);
+        return new BlogLikesDTO(String.join(",", top5), userDTOS);
     }
 
     /**
@@ -180,19 +672,30 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败!");
         }
-        // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-
-        // 4.推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 4.1.获取粉丝id
-            Long userId = follow.getUserId();
-            // 4.2.推送
-            String key = FEED_KEY + userId;     // 粉丝收件箱的key
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
+        // 3.写入作者自己的发件箱，只保留最新的 FEED_OUTBOX_MAX_SIZE 篇
+        long now = System.currentTimeMillis();
+        String outboxKey = FEED_OUTBOX_KEY + user.getId();
+        stringRedisTemplate.opsForZSet().add(outboxKey, blog.getId().toString(), now);
+        stringRedisTemplate.opsForZSet().removeRange(outboxKey, 0, -SystemConstants.FEED_OUTBOX_MAX_SIZE - 1);
+        // 4.推拉结合：粉丝多的作者只写发件箱（拉模式），由粉丝读取时合并；其他作者推送到粉丝收件箱（推模式）
+        //   粉丝数读取随关注维护的计数，不需要统计 tb_follow
+        Integer fans = followService.queryFollowCounts(user.getId()).getFans();
+        if (fans >= SystemConstants.FEED_BIG_AUTHOR_THRESHOLD) {
+            stringRedisTemplate.opsForSet().add(FEED_BIG_AUTHOR_KEY, user.getId().toString());
+        } else {
+            // 发送推送任务到消息队列，由后台线程分批推送给粉丝，不阻塞作者的请求
+            //   XADD stream.feed * blogId 1 userId 2 time 1686000000000
+            Map<String, String> task = new HashMap<>(3);
+            task.put("blogId", blog.getId().toString());
+            task.put("userId", user.getId().toString());
+            task.put("time", String.valueOf(now));
+            stringRedisTemplate.opsForStream().add(FEED_FANOUT_QUEUE, task);
         }
 
-        // 5.返回id
+        // 5.加入热门排行榜
+        refreshHotScore(Collections.singletonList(blog.getId()));
+
+        // 6.返回id
         return Result.ok(blog.getId());
     }
 
@@ -206,24 +709,41 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogOfFollow(Long max, Integer offset) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询粉丝收件箱的key
-        String key = FEED_KEY + userId;
+        int count = feedPageSize;
+        // 记录访问时间；不活跃的用户收件箱已经被清除（或从未建立），从数据库重建
+        touchInbox(userId);
+        // 2.需要读取的信箱：自己的收件箱 + 关注的大V的发件箱  SINTER follows:{userId} feed:big
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        followService.ensureFollowsLoaded(userId);
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_BIG_AUTHOR_KEY);
+        if (bigAuthors != null) {
+            bigAuthors.forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        }
         // *滚动分页查询 ZREVRANGEBYSCORE key Max Min LIMIT offset count
         // 因为是倒序排序，不关心最小值，只关注最大值的偏移量和查询的条数
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        // 3.非空判断
-        if (typedTuples == null || typedTuples.isEmpty()) {
+        // 多个信箱合并后才能确定跳过哪些，所以每个信箱都从头取 offset + count 条，用管道一次发送
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        // 3.多路归并，跳过上一页已经看过的 offset 条，取出 count 条
+        List<ZSetOperations.TypedTuple<String>> typedTuples = mergeFeed(results, offset, count);
+        // 4.非空判断
+        if (typedTuples.isEmpty()) {
             return Result.ok();
         }
-        // 4.解析数据：blogId、minTime（时间戳）、offset
+        // 5.解析数据：blogId、minTime（时间戳）、offset
         List<Long> ids = new ArrayList<>(typedTuples.size());
         long minTime = 0; // 2
         int os = 1; // 2
         for (ZSetOperations.TypedTuple<String> tuple : typedTuples) { // 5 4 4 2 2
-            // 4.1.获取博客id
+            // 5.1.获取博客id
             ids.add(Long.valueOf(tuple.getValue()));
-            // 4.2.获取分数(时间戳）
+            // 5.2.获取分数(时间戳）
             long time = tuple.getScore().longValue();
             if(time == minTime){
                 os++;
@@ -233,22 +753,18 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
+        // 整页的时间都和上一页的最小时间相同，需要加上上一页的偏移量
+        if (minTime == max) {
+            os += offset;
+        }
 
         // 上面只是查到了blog的id，需要根据id对blog进行查询，再将blog集合封装返回给前端
-        // 5.根据id查询blog
-        // 需要返回有序集合，而下面这种方法是基于sql的IN查询的，IN的查询是按照主键索引进行排序的，因此顺序可能与期望的不相同
-        // List<Blog> blogs = listByIds(ids);
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 6.根据id批量查询blog卡片（已经带有作者信息），一次MGET
+        List<Blog> blogs = queryBlogCards(ids);
+        // 6.1.批量查询blog是否被点赞，每个用户不同，不放在缓存中
+        isBlogsLiked(blogs);
 
-        // 6.封装相关信息到对应的实体类中并返回
+        // 7.封装相关信息到对应的实体类中并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
         r.setOffset(os);
@@ -257,11 +773,196 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(r);
     }
 
+    /**
+     * 记录用户访问关注页的时间，用户不活跃（收件箱已被清除或从未建立）时重建收件箱
+     */
+    private void touchInbox(Long userId) {
+        Double lastVisit = stringRedisTemplate.opsForZSet().score(FEED_ACTIVE_KEY, userId.toString());
+        if (lastVisit == null || lastVisit < inactiveBefore()) {
+            rebuildInbox(userId);
+        }
+        stringRedisTemplate.opsForZSet().add(FEED_ACTIVE_KEY, userId.toString(), System.currentTimeMillis());
+    }
+
+    /**
+     * 从数据库重建收件箱：查询关注的作者在 FEED_INACTIVE_DAYS 天内发布的最新 FEED_INBOX_MAX_SIZE 篇笔记
+     */
+    private void rebuildInbox(Long userId) {
+        // 1.查询关注的作者 select follow_user_id from tb_follow where user_id = ?
+        List<Long> followIds = followService.query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream().map(Follow::getFollowUserId).collect(Collectors.toList());
+        if (followIds.isEmpty()) {
+            return;
+        }
+        // 2.查询作者最近发布的笔记
+        List<Blog> blogs = query()
+                .select("id", "create_time")
+                .in("user_id", followIds)
+                .ge("create_time", LocalDateTime.now().minusDays(SystemConstants.FEED_INACTIVE_DAYS))
+                .orderByDesc("create_time")
+                .last("LIMIT " + SystemConstants.FEED_INBOX_MAX_SIZE)
+                .list();
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 3.写入收件箱，分数和推送时一样使用毫秒时间戳
+        Set<ZSetOperations.TypedTuple<String>> tuples = blogs.stream()
+                .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(),
+                        (double) blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()))
+                .collect(Collectors.toSet());
+        String key = FEED_KEY + userId;
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+        stringRedisTemplate.opsForZSet().removeRange(key, 0, -SystemConstants.FEED_INBOX_MAX_SIZE - 1);
+    }
+
+    /**
+     * 清除不活跃用户的收件箱，Redis中只保留活跃用户的收件箱
+     */
+    private void evictInactiveInbox() {
+        RLock lock = redissonClient.getLock(LOCK_FEED_EVICT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long before = inactiveBefore();
+            while (true) {
+                // 1.分批查询不活跃的用户 ZRANGEBYSCORE feed:active 0 before LIMIT 0 500
+                Set<String> userIds = stringRedisTemplate.opsForZSet()
+                        .rangeByScore(FEED_ACTIVE_KEY, 0, before, 0, 500);
+                if (userIds == null || userIds.isEmpty()) {
+                    break;
+                }
+                // 2.删除收件箱
+                stringRedisTemplate.delete(userIds.stream().map(id -> FEED_KEY + id).collect(Collectors.toList()));
+                // 3.从活跃用户中移除
+                stringRedisTemplate.opsForZSet().remove(FEED_ACTIVE_KEY, userIds.toArray());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 最后访问时间早于该时间戳的用户视为不活跃
+    private static long inactiveBefore() {
+        return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(SystemConstants.FEED_INACTIVE_DAYS);
+    }
+
+    /**
+     * 多路归并多个信箱的查询结果
+     *      每个信箱的结果都已经按时间倒序，用优先队列每次取出时间最大的一条；时间相同的按博客id倒序，保证每次翻页的顺序一致
+     *      同一篇博客可能同时在收件箱和发件箱中（例如作者粉丝数刚超过阈值），只保留一次
+     * @param results 每个信箱的 ZREVRANGEBYSCORE WITHSCORES 结果
+     * @param skip 跳过的条数
+     * @param count 取出的条数
+     */
+    @SuppressWarnings("unchecked")
+    private static List<ZSetOperations.TypedTuple<String>> mergeFeed(List<Object> results, int skip, int count) {
+        Comparator<ZSetOperations.TypedTuple<String>> order = Comparator
+                .comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore()).reversed()
+                .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder());
+        // 队列中的元素是各个信箱的迭代器，按迭代器当前指向的元素排序
+        PriorityQueue<PeekingTuples> heap = new PriorityQueue<>((a, b) -> order.compare(a.head, b.head));
+        for (Object result : results) {
+            if (result instanceof Set && !((Set<?>) result).isEmpty()) {
+                heap.add(new PeekingTuples(((Set<ZSetOperations.TypedTuple<String>>) result).iterator()));
+            }
+        }
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        while (!heap.isEmpty() && merged.size() < count) {
+            PeekingTuples top = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = top.head;
+            if (top.advance()) {
+                heap.add(top);
+            }
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            merged.add(tuple);
+        }
+        return merged;
+    }
+
+    private static class PeekingTuples {
+        private final Iterator<ZSetOperations.TypedTuple<String>> it;
+        private ZSetOperations.TypedTuple<String> head;
+
+        PeekingTuples(Iterator<ZSetOperations.TypedTuple<String>> it) {
+            this.it = it;
+            this.head = it.next();
+        }
+
+        boolean advance() {
+            if (!it.hasNext()) {
+                return false;
+            }
+            head = it.next();
+            return true;
+        }
+    }
+
+    /**
+     * 批量查询博客卡片：博客内容 + 作者昵称和头像 + 点赞数，按博客id缓存
+     *      一次MGET查出整页的卡片，未命中的再一次性查询数据库和作者
+     *      点赞数变化回写数据库后会删除对应的卡片缓存
+     * @param ids 博客id，返回的列表保持该顺序，已删除的博客会被跳过
+     */
+    private List<Blog> queryBlogCards(List<Long> ids) {
+        Map<Long, Blog> cards = cacheClient.queryBatchWithPassThrough(
+                CACHE_BLOG_KEY, ids, Blog.class,
+                missIds -> {
+                    List<Blog> blogs = listByIds(missIds);
+                    queryBlogUsers(blogs);
+                    return blogs.stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+                },
+                CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = cards.get(id);
+            if (blog != null) {
+                blogs.add(blog);
+            }
+        }
+        return blogs;
+    }
+
     // 查询博客用户
     private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUsers(Collections.singletonList(blog));
+    }
+
+    /**
+     * 批量查询一页博客的作者，用于回显昵称和头像
+     * 先收集这一页所有博客的作者id（同一作者只查一次），一次MGET查询用户缓存，未命中的再用一条IN查询数据库
+     * @param blogs 当前页的博客
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 1.收集作者id
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        // 2.批量查询作者
+        Map<Long, UserDTO> users = queryUsers(userIds);
+        // 3.回填到博客中
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    // 批量查询用户：一次MGET查询用户缓存，未命中的再用一条IN查询数据库
+    private Map<Long, UserDTO> queryUsers(Collection<Long> userIds) {
+        return userService.queryUserDTOs(userIds);
     }
 }
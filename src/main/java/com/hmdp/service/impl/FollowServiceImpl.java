@@ -1,24 +1,48 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.BooleanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.FollowCountDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FollowGraph;
+import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.*;
+
 /**
  * <p>
  * 服务实现类
@@ -27,6 +51,7 @@ import java.util.stream.Collectors;
  * @author Jimmy
  * @since 2023-06-06
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
@@ -34,44 +59,140 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IUserService userService;
+    @Resource
+    private BlogMapper blogMapper;
+    @Resource
+    private FollowGraph followGraph;
+    @Resource
+    private UserInfoMapper userInfoMapper;
+    @Resource
+    private CacheClient cacheClient;
 
+    private static final DefaultRedisScript<List<Long>> FOLLOW_STATE_SCRIPT;
+
+    static {
+        FOLLOW_STATE_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_STATE_SCRIPT.setLocation(new ClassPathResource("follow_state.lua"));
+        // 结果类型只能写 List.class，转换成带元素类型的List
+        @SuppressWarnings("unchecked")
+        Class<List<Long>> resultType = (Class<List<Long>>) (Class<?>) List.class;
+        FOLLOW_STATE_SCRIPT.setResultType(resultType);
+    }
+
+    // 维护收件箱的线程池：单线程 + 有界队列，不占用请求线程；队列满了就丢弃任务，收件箱会在用户下次不活跃后重建
+    private static final ExecutorService FEED_MAINTAIN_EXECUTOR = new ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(10000),
+            (r, executor) -> log.warn("收件箱维护任务队列已满，丢弃任务"));
+
+    /**
+     * 关注/取关
+     *      同一个事务中写入 tb_follow 并维护 tb_user_info 中的粉丝数、关注数
+     *      Redis中的 follows:{userId}、fans:{followUserId}、计数缓存，以及内存中的关注关系图都在事务提交后再修改：
+     *          提交前删除计数缓存，并发的查询可能又把提交前的旧计数写回缓存；事务回滚时也不需要撤销这些修改
+     */
     @Override
+    @Transactional
     public Result follow(Long followUserId, Boolean isFollow) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
+        String key = FOLLOWS_KEY + userId;
         // 1.判断到底是关注还是取关
         if (isFollow) {
             // 2.关注，新增数据
             Follow follow = new Follow();
             follow.setUserId(userId);
             follow.setFollowUserId(followUserId);
-            // 把关注信息存入db中
-            boolean isSuccess = save(follow);
+            // 把关注信息存入db中，(user_id, follow_user_id) 是唯一索引，重复关注视为成功
+            boolean isSuccess;
+            try {
+                isSuccess = save(follow);
+            } catch (DuplicateKeyException e) {
+                return Result.ok();
+            }
             if (isSuccess) {
-                // 把关注用户的id，放入redis的set集合 sadd follows:[userId] followerUserId
-                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+                // 更新计数
+                updateFollowCounts(userId, followUserId, 1);
+                afterCommit(() -> {
+                    evictFollowCounts(userId, followUserId);
+                    // 把关注用户的id，放入redis的set集合 sadd follows:[userId] followerUserId
+                    stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+                    // 反向索引 sadd fans:[followUserId] userId
+                    stringRedisTemplate.opsForSet().add(FANS_KEY + followUserId, userId.toString());
+                    // 更新内存中的关注关系图
+                    followGraph.follow(userId, followUserId);
+                    // 异步把该作者最近的笔记补充到收件箱
+                    submitFeedTask(() -> backfillInbox(userId, followUserId));
+                });
             }
         } else {
             // 3.取关，删除 delete from tb_follow where user_id = ? and follow_user_id = ?
             boolean isSuccess = remove(new QueryWrapper<Follow>()
                     .eq("user_id", userId).eq("follow_user_id", followUserId));
             if (isSuccess) {
-                // 把关注用户的id从Redis集合中移除 sremove follows:[userId] followerUserId
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                updateFollowCounts(userId, followUserId, -1);
+                afterCommit(() -> {
+                    evictFollowCounts(userId, followUserId);
+                    // 把关注用户的id从Redis集合中移除 sremove follows:[userId] followerUserId
+                    stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                    stringRedisTemplate.opsForSet().remove(FANS_KEY + followUserId, userId.toString());
+                    followGraph.unfollow(userId, followUserId);
+                    // 异步把该作者的笔记从收件箱中移除
+                    submitFeedTask(() -> purgeInbox(userId, followUserId));
+                });
             }
         }
         return Result.ok();
     }
 
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                // 事务已经提交，异常不再影响关注结果，只记录日志
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("关注关系提交后更新缓存异常", e);
+                }
+            }
+        });
+    }
+
     @Override
     public Result isFollow(Long followUserId) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询是否关注 select count(*) from tb_follow where user_id = ? and follow_user_id = ?
-        Integer count = query().eq("user_id", userId).eq("follow_user_id", followUserId).count();
+        // 2.查询是否关注 SISMEMBER follows:{userId} followUserId
+        List<Boolean> states = queryFollowStates(userId, Collections.singletonList(followUserId));
         // 3.判断
-        return Result.ok(count > 0);
+        return Result.ok(states.get(0));
+    }
+
+    /**
+     * 批量查询是否关注，用于作者列表的关注按钮回显，无论多少个用户都只需要一次Redis调用
+     * @param ids 用户id
+     * @return 用户id -> 是否关注
+     */
+    @Override
+    public Result isFollows(List<Long> ids) {
+        if (ids.isEmpty() || ids.size() > SystemConstants.MAX_FOLLOW_STATE_SIZE) {
+            return Result.fail("用户数量不合法！");
+        }
+        Long userId = UserHolder.getUser().getId();
+        List<Boolean> states = queryFollowStates(userId, ids);
+        Map<Long, Boolean> result = new LinkedHashMap<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            result.put(ids.get(i), states.get(i));
+        }
+        return Result.ok(result);
     }
 
     // 查询共同关注
@@ -79,21 +200,230 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result followCommons(Long id) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
-        // 2.求交集
-        String key2 = "follows:" + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
-        if (intersect == null || intersect.isEmpty()) {
+        // 2.在内存关注关系图中求交集，不需要访问Redis和数据库
+        List<Long> ids = followGraph.commonFollows(userId, id);
+        if (ids.isEmpty()) {
             // 无交集
             return Result.ok(Collections.emptyList());
         }
-        // 3.解析id集合（用stream流+map映射解析String集合为Long列表）
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
-        // 4.查询用户
-        List<UserDTO> users = userService.listByIds(ids)
+        // 3.查询用户（走用户缓存）
+        return Result.ok(queryUsers(ids));
+    }
+
+    /**
+     * 可能认识的人：我关注的人也关注了的用户，按共同关注的人数排序
+     */
+    @Override
+    public Result recommendFollows(Integer count) {
+        if (count == null || count <= 0 || count > SystemConstants.MAX_RECOMMEND_SIZE) {
+            return Result.fail("推荐数量不合法！");
+        }
+        Long userId = UserHolder.getUser().getId();
+        List<Long> ids = followGraph.recommend(userId, count);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(queryUsers(ids));
+    }
+
+    // 按id的顺序返回用户
+    private List<UserDTO> queryUsers(List<Long> ids) {
+        Map<Long, UserDTO> users = userService.queryUserDTOs(ids);
+        return ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    // 关注、取关后更新双方的计数
+    private void updateFollowCounts(Long userId, Long followUserId, int delta) {
+        userInfoMapper.incrFollowee(userId, delta);
+        userInfoMapper.incrFans(followUserId, delta);
+    }
+
+    // 事务提交后删除双方的计数缓存
+    private void evictFollowCounts(Long userId, Long followUserId) {
+        stringRedisTemplate.delete(Arrays.asList(
+                CACHE_FOLLOW_COUNT_KEY + userId, CACHE_FOLLOW_COUNT_KEY + followUserId));
+    }
+
+    // 查询用户主页的粉丝数、关注数
+    @Override
+    public Result followCounts(Long id) {
+        return Result.ok(queryFollowCounts(id));
+    }
+
+    /**
+     * 查询粉丝数、关注数，读取缓存，未命中时按主键查询 tb_user_info，不需要统计 tb_follow
+     */
+    @Override
+    public FollowCountDTO queryFollowCounts(Long userId) {
+        FollowCountDTO counts = cacheClient.queryWithPassThrough(CACHE_FOLLOW_COUNT_KEY, userId, FollowCountDTO.class,
+                id -> {
+                    // select fans, followee from tb_user_info where user_id = ?
+                    UserInfo info = userInfoMapper.selectOne(new QueryWrapper<UserInfo>()
+                            .select("fans", "followee")
+                            .eq("user_id", id));
+                    // 没有详情的用户也缓存0，避免缓存空值
+                    return info == null ? new FollowCountDTO(0, 0)
+                            : new FollowCountDTO(nullToZero(info.getFans()), nullToZero(info.getFollowee()));
+                },
+                CACHE_FOLLOW_COUNT_TTL, TimeUnit.MINUTES);
+        return counts == null ? new FollowCountDTO(0, 0) : counts;
+    }
+
+    private static int nullToZero(Integer count) {
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 确保粉丝集合 fans:{userId} 已经从数据库完整加载，用于推送笔记给粉丝
+     *      按 tb_follow(follow_user_id) 索引查询，只有集合不存在时才查询一次
+     */
+    @Override
+    public void ensureFansLoaded(Long userId) {
+        String key = FANS_KEY + userId;
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(key, FOLLOWS_LOADED))) {
+            return;
+        }
+        // select user_id from tb_follow where follow_user_id = ?
+        List<Follow> fans = query()
+                .select("user_id")
+                .eq("follow_user_id", userId)
+                .list();
+        String[] members = new String[fans.size() + 1];
+        members[0] = FOLLOWS_LOADED;
+        for (int i = 0; i < fans.size(); i++) {
+            members[i + 1] = fans.get(i).getUserId().toString();
+        }
+        stringRedisTemplate.opsForSet().add(key, members);
+    }
+
+    /**
+     * 确保关注集合已经从数据库完整加载，需要对关注集合做集合运算之前调用
+     */
+    @Override
+    public void ensureFollowsLoaded(Long userId) {
+        if (!BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FOLLOWS_KEY + userId, FOLLOWS_LOADED))) {
+            loadFollows(userId);
+        }
+    }
+
+    /**
+     * 批量判断是否关注，lua脚本中逐个SISMEMBER，一次调用返回所有结果（效果同 SMISMEMBER，不要求Redis 6.2）
+     *      集合还没有加载时从数据库加载，本次直接用查到的数据判断
+     */
+    private List<Boolean> queryFollowStates(Long userId, List<Long> ids) {
+        List<Long> result = stringRedisTemplate.execute(
+                FOLLOW_STATE_SCRIPT,
+                Collections.singletonList(FOLLOWS_KEY + userId),
+                ids.stream().map(String::valueOf).toArray()
+        );
+        if (result != null) {
+            return result.stream().map(r -> r == 1).collect(Collectors.toList());
+        }
+        Set<Long> follows = loadFollows(userId);
+        return ids.stream().map(follows::contains).collect(Collectors.toList());
+    }
+
+    /**
+     * 从数据库加载用户关注的所有用户到 follows:{userId}，同时写入占位成员
+     *      SADD是幂等的，和关注、取关并发时最多多出一个刚取关的用户，不会丢失关注
+     */
+    private Set<Long> loadFollows(Long userId) {
+        // select follow_user_id from tb_follow where user_id = ?
+        Set<Long> follows = query()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .list()
+                .stream().map(Follow::getFollowUserId).collect(Collectors.toSet());
+        String[] members = new String[follows.size() + 1];
+        members[0] = FOLLOWS_LOADED;
+        int i = 1;
+        for (Long id : follows) {
+            members[i++] = id.toString();
+        }
+        stringRedisTemplate.opsForSet().add(FOLLOWS_KEY + userId, members);
+        return follows;
+    }
+
+    private void submitFeedTask(Runnable task) {
+        FEED_MAINTAIN_EXECUTOR.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("维护收件箱异常", e);
+            }
+        });
+    }
+
+    /**
+     * 关注后，把作者最新的 FEED_BACKFILL_SIZE 篇笔记合并到收件箱
+     *      不活跃的用户没有收件箱，下次访问时会整体重建，不需要补充
+     *      大V的笔记在读取时从发件箱拉取，也不需要补充
+     */
+    private void backfillInbox(Long userId, Long followUserId) {
+        Double lastVisit = stringRedisTemplate.opsForZSet().score(FEED_ACTIVE_KEY, userId.toString());
+        long activeAfter = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(SystemConstants.FEED_INACTIVE_DAYS);
+        if (lastVisit == null || lastVisit < activeAfter) {
+            return;
+        }
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet().isMember(FEED_BIG_AUTHOR_KEY, followUserId.toString()))) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> blogs = recentBlogs(followUserId, SystemConstants.FEED_BACKFILL_SIZE);
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 管道批量写入收件箱，并只保留最新的 FEED_INBOX_MAX_SIZE 条
+        String key = FEED_KEY + userId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ZSetOperations.TypedTuple<String> blog : blogs) {
+                conn.zAdd(key, blog.getScore(), blog.getValue());
+            }
+            conn.zRemRange(key, 0, -SystemConstants.FEED_INBOX_MAX_SIZE - 1);
+            return null;
+        });
+    }
+
+    /**
+     * 取关后，把作者的笔记从收件箱中移除，收件箱最多 FEED_INBOX_MAX_SIZE 条，只需要移除作者最新的这么多篇
+     */
+    private void purgeInbox(Long userId, Long followUserId) {
+        String key = FEED_KEY + userId;
+        if (BooleanUtil.isFalse(stringRedisTemplate.hasKey(key))) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> blogs = recentBlogs(followUserId, SystemConstants.FEED_INBOX_MAX_SIZE);
+        if (blogs.isEmpty()) {
+            return;
+        }
+        // 管道批量移除
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ZSetOperations.TypedTuple<String> blog : blogs) {
+                conn.zRem(key, blog.getValue());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 查询作者最新的笔记id和发布时间（毫秒时间戳），优先读取作者的发件箱，发件箱不存在时查询数据库
+     */
+    private Set<ZSetOperations.TypedTuple<String>> recentBlogs(Long authorId, int limit) {
+        Set<ZSetOperations.TypedTuple<String>> outbox = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(FEED_OUTBOX_KEY + authorId, 0, limit - 1);
+        if (outbox != null && !outbox.isEmpty()) {
+            return outbox;
+        }
+        // select id, create_time from tb_blog where user_id = ? order by id desc limit ?
+        return blogMapper.selectList(new QueryWrapper<Blog>()
+                        .select("id", "create_time")
+                        .eq("user_id", authorId)
+                        .orderByDesc("id")
+                        .last("LIMIT " + limit))
                 .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
-        return Result.ok(users);
+                .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(),
+                        (double) blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()))
+                .collect(Collectors.toSet());
     }
 }
@@ -8,6 +8,7 @@ import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.ShopFacetIndex;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -18,6 +19,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalTime;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -39,6 +41,9 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopFacetIndex shopFacetIndex;
+
     @Override
     public Result queryById(Long id) {
         // 解决缓存穿透
@@ -221,9 +226,52 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         updateById(shop);
         // 2. 删除缓存。 考虑的是数据库更新时删除缓存，等有人访问了再更新缓存。这样做的好处是可以降低对缓存的写的次数，避免写大于读的情况。
         stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        // 3. 传入的shop可能只带了部分字段，重新查询完整信息后刷新筛选索引
+        shopFacetIndex.upsert(getById(id));
         return Result.ok();
     }
 
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库
+        save(shop);
+        // 2. 加入筛选索引
+        shopFacetIndex.upsert(getById(shop.getId()));
+        // 3. 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
+    /**
+     * 根据类型、商圈、价格区间、评分区间、是否营业中筛选商铺，走内存位图索引，不在数据库中做筛选
+     * @param filters 维度 -> 取值，见 ShopFacetIndex 中的维度常量
+     * @param openNow 是否只看营业中的商铺
+     * @param current 页码
+     */
+    @Override
+    public Result queryShopByFacet(Map<String, String> filters, Boolean openNow, Integer current) {
+        // 1.位图求交集，得到所有符合条件的商铺id
+        List<Long> allIds = shopFacetIndex.query(filters, Boolean.TRUE.equals(openNow) ? LocalTime.now() : null);
+        // 2.截取当前页，页码由客户端传入，小于1时按第1页处理
+        int page = current == null || current < 1 ? 1 : current;
+        long from = (long) (page - 1) * DEFAULT_PAGE_SIZE;
+        if (from >= allIds.size()) {
+            return Result.ok(Collections.emptyList(), (long) allIds.size());
+        }
+        List<Long> ids = allIds.subList((int) from, (int) Math.min(from + DEFAULT_PAGE_SIZE, allIds.size()));
+        // 3.只按主键查询当前页的商铺
+        String idStr = StrUtil.join(",", ids);
+        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        return Result.ok(shops, (long) allIds.size());
+    }
+
+    /**
+     * 统计当前筛选条件下各维度取值的商铺数量
+     */
+    @Override
+    public Result countShopFacets(Map<String, String> filters, Boolean openNow) {
+        return Result.ok(shopFacetIndex.count(filters, Boolean.TRUE.equals(openNow) ? LocalTime.now() : null));
+    }
+
     /*
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
@@ -1,34 +1,44 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SignCalendarDTO;
+import com.hmdp.dto.SignRankDTO;
+import com.hmdp.dto.SignStatsDTO;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BeanConverter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginTokenCache;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignArchiver;
+import com.hmdp.utils.SignBitmaps;
+import com.hmdp.utils.SignedTokenManager;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.time.format.DateTimeFormatter;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 import static com.hmdp.utils.SystemConstants.*;
@@ -46,9 +56,23 @@ import static com.hmdp.utils.SystemConstants.*;
 @Service
 public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IUserService {
 
+    private static final DateTimeFormatter SIGN_MONTH_FORMATTER = DateTimeFormatter.ofPattern(":yyyyMM");
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private LoginTokenCache loginTokenCache;
+
+    @Resource
+    private SignedTokenManager signedTokenManager;
+
+    @Resource
+    private SignArchiver signArchiver;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1. 校验手机号
@@ -97,16 +121,18 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user = createUserWithPhone(phone);
         }
 
+        UserDTO userDTO = BeanConverter.toUserDTO(user);
+        // 无状态模式：签发签名token，不写Redis
+        if (signedTokenManager.isEnabled()) {
+            return Result.ok(signedTokenManager.issue(userDTO));
+        }
+
         // 7. 保存用户信息到redis中
         // 7.1 随机一个token作为登录令牌(isSimple为true：不带 “-”)
         String token = UUID.randomUUID().toString(true);
         // 7.2 要用redis中的Hash格式存储，因此要将User对象转为HashMap
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         // 因为使用的StringRedisTemplate，它要求key和value都是String类型，因此需要将所有属性值都转成String类型
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
+        Map<String, String> userMap = BeanConverter.toMap(userDTO);
         // 7.3 保存数据到redsi
 //        session.setAttribute("user", userDTO);
         String tokenKey = LOGIN_USER_KEY + token;
@@ -117,67 +143,231 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(token);
     }
 
+    @Override
+    public void logout(String token) {
+        if (SignedTokenManager.isSigned(token)) {
+            signedTokenManager.revoke(token);
+            return;
+        }
+        loginTokenCache.revoke(token);
+    }
+
     // BitMap当前用户的每月签到
     @Override
     public Result sign() {
         // 1.获取当前登录用户
         Long userId = UserHolder.getUser().getId();
         // 2.获取日期
-        LocalDateTime now = LocalDateTime.now();
-        // 3.拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern(":yyyyMM"));
-        String key = USER_SIGN_KEY + userId + keySuffix;
-        // 4.获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
-        // 5.写入Redis SETBIT key offset 1
-        stringRedisTemplate.opsForValue().setBit(key, dayOfMonth - 1, true);
-        return Result.ok();
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        // 3.获取今天是本月的第几天
+        int dayOfMonth = today.getDayOfMonth();
+        // 4.一次管道：SETBIT key offset 1，再取回本月和上月的bitmap
+        String key = signKey(userId, month);
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().setBit(rawKey, dayOfMonth - 1, true);
+            connection.stringCommands().get(rawKey);
+            connection.stringCommands().get(signKey(userId, month.minusMonths(1)).getBytes(StandardCharsets.UTF_8));
+            return null;
+        }, RedisSerializer.byteArray());
+        // 5.计算连续签到天数，写入今天的排行榜 ZADD sign:streak:{yyyyMMdd} streak userId
+        int streak = streak(userId, SignBitmaps.toBits((byte[]) results.get(1)), SignBitmaps.toBits((byte[]) results.get(2)), today);
+        String rankKey = USER_SIGN_STREAK_KEY + today.format(DateTimeFormatter.BASIC_ISO_DATE);
+        stringRedisTemplate.opsForZSet().add(rankKey, userId.toString(), streak);
+        stringRedisTemplate.expire(rankKey, USER_SIGN_STREAK_TTL, TimeUnit.DAYS);
+        return Result.ok(streak);
     }
 
-    // 统计连续签到次数
+    // 统计连续签到次数，本月从1号起都签到了，继续统计之前月份月底的连续签到
     @Override
     public Result signCount() {
         // 1.获取当前登录用户
         Long userId = UserHolder.getUser().getId();
-        // 2.获取日期
-        LocalDateTime now = LocalDateTime.now();
-        // 3.拼接key
-        String keySuffix = now.format(DateTimeFormatter.ofPattern(":yyyyMM"));
-        String key = USER_SIGN_KEY + userId + keySuffix;
-        // 4.获取今天是本月的第几天
-        int dayOfMonth = now.getDayOfMonth();
-        // 5.获取本月截止今天为止的所有的签到记录，返回的是一个十进制的数字 BITFIELD sign:1010:202306 GET u14 0
-        List<Long> result = stringRedisTemplate.opsForValue().bitField(
-                key,
-                BitFieldSubCommands.create()        // bitField命令下的 GET子命令
-                        .get(BitFieldSubCommands.BitFieldType.unsigned(dayOfMonth)).valueAt(0)
-        );
-        if (result == null || result.isEmpty()) {
-            // 没有任何签到结果
-            return Result.ok(0);
-        }
-        // 这里的num是10进制的数据，num==0表示一天也没签到
-        Long num = result.get(0);
-        if (num == null || num == 0) {
-            return Result.ok(0);
-        }
-        // 6.循环遍历
-        int count = 0;
+        // 2.一次管道取回本月和上月的bitmap
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int[] bits = querySignBits(userId, Arrays.asList(month, month.minusMonths(1)));
+        // 3.整字运算统计连续签到天数
+        return Result.ok(streak(userId, bits[0], bits[1], today));
+    }
+
+    /**
+     * 本月签到统计，一次管道取回本月和上月的bitmap，之后都是本地的位运算
+     */
+    @Override
+    public Result signStats() {
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        YearMonth month = YearMonth.from(today);
+        int[] bits = querySignBits(userId, Arrays.asList(month, month.minusMonths(1)));
+        SignStatsDTO stats = new SignStatsDTO();
+        stats.setSignedToday(SignBitmaps.isSigned(bits[0], today.getDayOfMonth()));
+        stats.setStreak(streak(userId, bits[0], bits[1], today));
+        stats.setMonthCount(SignBitmaps.count(bits[0], today.getDayOfMonth()));
+        stats.setLongestStreak(SignBitmaps.longestStreak(bits[0]));
+        stats.setDays(SignBitmaps.days(bits[0]));
+        return Result.ok(stats);
+    }
+
+    /**
+     * 一年的签到日历，一次管道取回12个月的bitmap
+     *      最长连续签到按月拼接：整月都签到时延续上个月的连续天数，否则比较"上月月底 + 本月月初"和本月内部的最长段
+     */
+    @Override
+    public Result signCalendar(Integer year) {
+        Long userId = UserHolder.getUser().getId();
+        int currentYear = LocalDate.now().getYear();
+        int y = year == null ? currentYear : year;
+        // 只能查询注册当年到今年，更早的年份没有签到，不需要从数据库恢复
+        if (y > currentYear || (y < currentYear && y < createYear(userId))) {
+            return Result.fail("年份不合法！");
+        }
+        List<YearMonth> months = new ArrayList<>(12);
+        for (int m = 1; m <= 12; m++) {
+            months.add(YearMonth.of(y, m));
+        }
+        int[] bits = querySignBits(userId, months);
+        SignCalendarDTO calendar = new SignCalendarDTO();
+        calendar.setYear(y);
+        Map<Integer, List<Integer>> days = new LinkedHashMap<>(16);
+        int total = 0;
+        int longest = 0;
+        // 跨到下个月的连续签到天数
+        int run = 0;
+        for (int i = 0; i < 12; i++) {
+            int length = months.get(i).lengthOfMonth();
+            days.put(i + 1, SignBitmaps.days(bits[i]));
+            total += Integer.bitCount(bits[i]);
+            // 月初连续签到的天数
+            int lead = Math.min(Integer.numberOfLeadingZeros(~bits[i]), length);
+            if (lead == length) {
+                run += length;
+                longest = Math.max(longest, run);
+            } else {
+                longest = Math.max(longest, Math.max(run + lead, SignBitmaps.longestStreak(bits[i])));
+                run = SignBitmaps.streakEndingAt(bits[i], length);
+            }
+        }
+        calendar.setTotal(total);
+        calendar.setLongestStreak(longest);
+        calendar.setMonths(days);
+        return Result.ok(calendar);
+    }
+
+    // 用户注册的年份，用户不存在时返回今年
+    private int createYear(Long userId) {
+        User user = query().select("create_time").eq("id", userId).one();
+        return user == null || user.getCreateTime() == null ? LocalDate.now().getYear() : user.getCreateTime().getYear();
+    }
+
+    /**
+     * 今天的连续签到排行榜，签到时写入 sign:streak:{yyyyMMdd}，分数是截止今天的连续签到天数
+     */
+    @Override
+    public Result signRank(Integer count) {
+        if (count == null || count <= 0 || count > MAX_SIGN_RANK_SIZE) {
+            return Result.fail("数量不合法！");
+        }
+        String rankKey = USER_SIGN_STREAK_KEY + LocalDate.now().format(DateTimeFormatter.BASIC_ISO_DATE);
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeWithScores(rankKey, 0, count - 1);
+        if (tuples == null || tuples.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Long> ids = tuples.stream().map(t -> Long.valueOf(t.getValue())).collect(Collectors.toList());
+        Map<Long, UserDTO> users = queryUserDTOs(ids);
+        List<SignRankDTO> rank = new ArrayList<>(tuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            UserDTO user = users.get(Long.valueOf(tuple.getValue()));
+            if (user != null) {
+                rank.add(new SignRankDTO(user, tuple.getScore().intValue()));
+            }
+        }
+        return Result.ok(rank);
+    }
+
+    /**
+     * 截止今天的连续签到天数
+     *      本月从1号起都签到了，再加上上个月月底的连续签到；上个月整月都签到了，继续往前，
+     *      每次管道取回更早的 SIGN_STREAK_BATCH_MONTHS 个月（已归档的从 tb_sign 恢复），直到某个月月底断签
+     */
+    private int streak(Long userId, int bits, int previousBits, LocalDate today) {
+        int day = today.getDayOfMonth();
+        int streak = SignBitmaps.streakEndingAt(bits, day);
+        if (streak < day) {
+            return streak;
+        }
+        List<YearMonth> months = Collections.singletonList(YearMonth.from(today).minusMonths(1));
+        int[] monthBits = {previousBits};
         while (true) {
-            // 6.1.让这个数字与1做与运算，得到数字的最后一个bit位
-            // 判断这个bit位是否为0
-            if ((num & 1) == 0) {
-                // 如果为0，说明未签到，结束
-                break;
-            }else {
-                // 如果不为0，说明已签到，计数器+1
-                count++;
+            for (int i = 0; i < months.size(); i++) {
+                int length = months.get(i).lengthOfMonth();
+                int tail = SignBitmaps.streakEndingAt(monthBits[i], length);
+                streak += tail;
+                if (tail < length) {
+                    return streak;
+                }
             }
-            // 把数字右移一位，抛弃最后一个bit位，继续下一个bit位
-            // 右移一位再赋值给num，等于把最右的一位抛弃
-            num >>>= 1;
+            // 这一批都是整月签到，取更早的月份
+            YearMonth earliest = months.get(months.size() - 1);
+            months = new ArrayList<>(SIGN_STREAK_BATCH_MONTHS);
+            for (int i = 1; i <= SIGN_STREAK_BATCH_MONTHS; i++) {
+                months.add(earliest.minusMonths(i));
+            }
+            monthBits = querySignBits(userId, months);
         }
-        return Result.ok(count);
+    }
+
+    /**
+     * 一次管道GET多个月的签到bitmap（原始字节，不能按字符串解码）
+     * @return 与months一一对应的整字bitmap
+     */
+    private int[] querySignBits(Long userId, List<YearMonth> months) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (YearMonth month : months) {
+                connection.stringCommands().get(signKey(userId, month).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        int[] bits = new int[months.size()];
+        List<YearMonth> archived = new ArrayList<>();
+        for (int i = 0; i < bits.length; i++) {
+            byte[] bitmap = (byte[]) results.get(i);
+            if (bitmap == null && SignArchiver.isArchived(months.get(i))) {
+                // 已归档的月份，从 tb_sign 恢复
+                archived.add(months.get(i));
+                continue;
+            }
+            bits[i] = SignBitmaps.toBits(bitmap);
+        }
+        if (!archived.isEmpty()) {
+            Map<YearMonth, Integer> restored = signArchiver.restore(userId, archived);
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] |= restored.getOrDefault(months.get(i), 0);
+            }
+        }
+        return bits;
+    }
+
+    // sign:{userId}:{yyyyMM}
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + month.format(SIGN_MONTH_FORMATTER);
+    }
+
+    /**
+     * 批量查询用户的昵称和头像，用于博客、评论等列表回显作者
+     *      一次MGET查询用户缓存，未命中的再用一条IN查询数据库
+     * @param ids 用户id，重复的id只查一次
+     * @return 用户id -> 用户，不存在的用户不在结果中
+     */
+    @Override
+    public Map<Long, UserDTO> queryUserDTOs(Collection<Long> ids) {
+        return cacheClient.queryBatchWithPassThrough(
+                CACHE_USER_KEY, ids, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .collect(Collectors.toMap(User::getId, BeanConverter::toUserDTO)),
+                CACHE_USER_TTL, TimeUnit.MINUTES);
     }
 
     private User createUserWithPhone(String phone) {
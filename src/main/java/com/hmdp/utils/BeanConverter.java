@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.entity.VoucherOrder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 热点路径上的对象转换，手写赋值代替 BeanUtil 的反射
+ *      BeanUtil 每次转换都要按属性名查找getter/setter、做类型转换，还会创建中间对象；
+ *      这里的转换在每个请求（登录用户）、每个订单消息上都会执行，字段固定，直接赋值即可
+ *      实体或DTO增加字段时需要同步修改这里
+ */
+public final class BeanConverter {
+
+    private BeanConverter() {
+    }
+
+    /**
+     * User -> UserDTO，代替 BeanUtil.copyProperties(user, UserDTO.class)
+     */
+    public static UserDTO toUserDTO(User user) {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setNickName(user.getNickName());
+        userDTO.setIcon(user.getIcon());
+        return userDTO;
+    }
+
+    /**
+     * UserDTO -> 登录token的hash，值都是String，忽略null，代替 BeanUtil.beanToMap
+     */
+    public static Map<String, String> toMap(UserDTO userDTO) {
+        Map<String, String> map = new HashMap<>(4);
+        if (userDTO.getId() != null) {
+            map.put("id", userDTO.getId().toString());
+        }
+        if (userDTO.getNickName() != null) {
+            map.put("nickName", userDTO.getNickName());
+        }
+        if (userDTO.getIcon() != null) {
+            map.put("icon", userDTO.getIcon());
+        }
+        return map;
+    }
+
+    /**
+     * 登录token的hash -> UserDTO，代替 BeanUtil.fillBeanWithMap
+     */
+    public static UserDTO toUserDTO(Map<Object, Object> map) {
+        UserDTO userDTO = new UserDTO();
+        Object id = map.get("id");
+        if (id != null) {
+            userDTO.setId(Long.valueOf(id.toString()));
+        }
+        userDTO.setNickName((String) map.get("nickName"));
+        userDTO.setIcon((String) map.get("icon"));
+        return userDTO;
+    }
+
+    /**
+     * 订单消息 -> VoucherOrder，消息由 seckill.lua 发送：userId、voucherId、id
+     */
+    public static VoucherOrder toVoucherOrder(Map<Object, Object> map) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(parseLong(map.get("id")));
+        voucherOrder.setUserId(parseLong(map.get("userId")));
+        voucherOrder.setVoucherId(parseLong(map.get("voucherId")));
+        return voucherOrder;
+    }
+
+    private static Long parseLong(Object value) {
+        return value == null ? null : Long.valueOf(value.toString());
+    }
+}
@@ -5,14 +5,18 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
@@ -28,6 +32,8 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    private static final String LOCK_KEY_PREFIX = "lock:";
+
     // 手动创建线程池
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
@@ -80,6 +86,57 @@ public class CacheClient {
         return r;
     }
 
+    // 该方法封装了：
+    //         批量查询 + 缓存穿透的处理方法
+    //         一次MGET查出所有缓存，未命中的id交给dbFallback一次性查询数据库，再用管道批量写回缓存
+    //         适合列表页批量回显（例如一页博客的作者信息），避免每条记录都查询一次
+    public <R, ID> Map<ID, R> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<R> type,
+            Function<List<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit unit) {
+        // 1.去重，保持顺序
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<ID, R> result = new HashMap<>(idList.size());
+        if (idList.isEmpty()) {
+            return result;
+        }
+        // 2.一次MGET查询所有缓存
+        List<String> keys = idList.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                // 2.1.命中，直接使用
+                result.put(idList.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                // 2.2.未命中，需要查询数据库（命中空值的说明数据库中也不存在，直接跳过）
+                missIds.add(idList.get(i));
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+        // 3.一次性查询数据库
+        Map<ID, R> loaded = dbFallback.apply(missIds);
+        // 4.用管道批量写回缓存，数据库中不存在的写入空值
+        long seconds = unit.toSeconds(time);
+        long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                if (r == null) {
+                    conn.setEx(keyPrefix + id, nullSeconds, "");
+                } else {
+                    conn.setEx(keyPrefix + id, seconds, JSONUtil.toJsonStr(r));
+                    result.put(id, r);
+                }
+            }
+            return null;
+        });
+        return result;
+    }
+
     // 该方法封装了：
     //         缓存击穿  —— 逻辑过期
     public <R, ID> R queryWithLogicalExpire(
@@ -127,6 +184,70 @@ public class CacheClient {
         return r;
     }
 
+    // 该方法封装了：
+    //         缓存击穿  —— 逻辑过期（不需要预热的数据，例如博客详情）
+    //         与 queryWithLogicalExpire 的区别：未命中时查询数据库并写入带逻辑过期的缓存，数据库中不存在的写入空值；
+    //         按缓存的key加锁，不同业务的缓存互不影响
+    public <R, ID> R queryWithLogicalExpireOrLoad(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        // 1.从redis查询缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 2.判断是否存在
+        if (json == null) {
+            // 3.未命中，查询数据库并写入缓存
+            R r = dbFallback.apply(id);
+            if (r == null) {
+                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                return null;
+            }
+            this.setWithLogicalExpire(key, r, time, unit);
+            return r;
+        }
+        if (StrUtil.isBlank(json)) {
+            // 命中空值
+            return null;
+        }
+        // 4.命中，需要先把json反序列化为对象
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        LocalDateTime expireTime = redisData.getExpireTime();
+        // 5.判断是否过期
+        if(expireTime.isAfter(LocalDateTime.now())) {
+            // 5.1.未过期，直接返回
+            return r;
+        }
+        // 5.2.已过期，需要缓存重建
+        // 6.缓存重建
+        // 6.1.获取互斥锁
+        String lockKey = LOCK_KEY_PREFIX + key;
+        boolean isLock = tryLock(lockKey);
+        // 6.2.判断是否获取锁成功
+        if (isLock){
+            // 6.3.成功，开启独立线程，实现缓存重建
+            CACHE_REBUILD_EXECUTOR.submit(() -> {
+                try {
+                    // 查询数据库
+                    R newR = dbFallback.apply(id);
+                    if (newR == null) {
+                        // 数据已被删除，写入空值
+                        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        return;
+                    }
+                    // 重建缓存(带有逻辑过期的)
+                    this.setWithLogicalExpire(key, newR, time, unit);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }finally {
+                    // 释放锁
+                    unlock(lockKey);
+                }
+            });
+        }
+        // 6.4.返回过期的信息
+        return r;
+    }
+
     // 该方法封装了：
     //         缓存击穿  —— 互斥锁
     public <R, ID> R queryWithMutex(
@@ -0,0 +1,604 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存中的关注关系图，用于共同关注、"可能认识的人"推荐（粉丝数、关注数以 tb_user_info 中的计数为准）
+ *      用户id映射为连续的内部序号，关注关系用CSR（压缩稀疏行）存储：
+ *          outOff[u] ~ outOff[u+1] 是 outAdj 中用户u关注的人（有序），inOff/inAdj 同理是用户u的粉丝
+ *      每个用户只占两个int的偏移量，每条关注关系两个int，百万级的关注关系只需要十几MB
+ *      关注、取关先记在增量中（added/removed），增量较多时再合并成新的CSR数组
+ *
+ * 启动时优先从磁盘快照加载，再从数据库追加快照之后新增的关注（按 tb_follow 的主键），边数和数据库不一致（有取关）时整体重建
+ * 多实例部署时，其他实例的关注由定时同步追加，取关由边数校验发现后重建
+ *      本实例的关注、取关在事务提交后才修改关系图，数据库和关系图之间只有很短的不一致；
+ *      边数连续两次校验都不一致才重建，避免校验恰好落在提交和修改关系图之间时触发重建
+ * 关系图没有变化时不重写快照
+ */
+@Slf4j
+@Component
+public class FollowGraph {
+
+    private static final int SNAPSHOT_MAGIC = 0x46474631;
+
+    // 从数据库加载时每批的行数
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    // 增量超过这么多条时合并成新的CSR数组
+    private static final int COMPACT_THRESHOLD = 10000;
+
+    // 推荐时每个关注的人最多看他关注的前多少人，避免关注了大量用户的账号拖慢计算
+    private static final int MAX_HOP_FANOUT = 1000;
+
+    private final FollowMapper followMapper;
+
+    private final Path snapshotPath;
+
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    // 读写锁保护，重建时整个替换
+    private Graph graph = new Graph();
+
+    // 关系图的修改次数和最近一次写入快照时的修改次数（都由写锁保护），没有变化时不重写快照
+    private long modCount;
+    private long savedModCount = -1;
+
+    // 上一次同步时边数是否和数据库不一致，只在同步线程中访问
+    private boolean countMismatch;
+
+    private static final ScheduledExecutorService FOLLOW_GRAPH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    public FollowGraph(FollowMapper followMapper,
+                       @Value("${hmdp.follow-graph.snapshot:follow-graph.bin}") String snapshotPath) {
+        this.followMapper = followMapper;
+        this.snapshotPath = Paths.get(snapshotPath);
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!loadSnapshot()) {
+            rebuild();
+        }
+        // 追加快照之后的变化并校验
+        sync();
+        FOLLOW_GRAPH_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                sync();
+            } catch (Exception e) {
+                log.error("同步关注关系图异常", e);
+            }
+        }, SystemConstants.FOLLOW_GRAPH_SYNC_INTERVAL, SystemConstants.FOLLOW_GRAPH_SYNC_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        saveSnapshot();
+    }
+
+    /**
+     * 关注，数据库写入成功后调用
+     */
+    public void follow(Long userId, Long followUserId) {
+        rwLock.writeLock().lock();
+        try {
+            graph.add(graph.ordinalOf(userId), graph.ordinalOf(followUserId));
+            modCount++;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 取关，数据库删除成功后调用
+     */
+    public void unfollow(Long userId, Long followUserId) {
+        rwLock.writeLock().lock();
+        try {
+            Integer u = graph.ordinals.get(userId);
+            Integer v = graph.ordinals.get(followUserId);
+            if (u != null && v != null) {
+                graph.remove(u, v);
+                modCount++;
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 共同关注：两个有序数组归并求交集
+     */
+    public List<Long> commonFollows(Long userId, Long otherId) {
+        rwLock.readLock().lock();
+        try {
+            Integer u = graph.ordinals.get(userId);
+            Integer v = graph.ordinals.get(otherId);
+            if (u == null || v == null) {
+                return Collections.emptyList();
+            }
+            int[] a = graph.followees(u);
+            int[] b = graph.followees(v);
+            List<Long> commons = new ArrayList<>();
+            for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    commons.add(graph.userIds[a[i]]);
+                    i++;
+                    j++;
+                }
+            }
+            return commons;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 二度关系推荐：我关注的人关注了谁
+     *      被越多我关注的人关注，排名越靠前；相同时粉丝多的靠前；排除自己和已经关注的人
+     * @return 推荐的用户id
+     */
+    public List<Long> recommend(Long userId, int limit) {
+        rwLock.readLock().lock();
+        try {
+            Integer u = graph.ordinals.get(userId);
+            if (u == null) {
+                return Collections.emptyList();
+            }
+            int[] followees = graph.followees(u);
+            // 1.统计每个二度用户被我关注的人关注的次数
+            Map<Integer, Integer> scores = new HashMap<>();
+            for (int f : followees) {
+                int[] second = graph.followees(f);
+                for (int i = 0; i < second.length && i < MAX_HOP_FANOUT; i++) {
+                    int g = second[i];
+                    if (g != u && Arrays.binarySearch(followees, g) < 0) {
+                        scores.merge(g, 1, Integer::sum);
+                    }
+                }
+            }
+            // 2.小顶堆取前limit个
+            Map<Integer, Integer> fans = new HashMap<>();
+            Comparator<Integer> order = Comparator.<Integer>comparingInt(scores::get)
+                    .thenComparingInt(g -> fans.computeIfAbsent(g, k -> graph.followers(k).length));
+            PriorityQueue<Integer> heap = new PriorityQueue<>(order);
+            for (Integer g : scores.keySet()) {
+                heap.add(g);
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+            LinkedList<Long> result = new LinkedList<>();
+            while (!heap.isEmpty()) {
+                result.addFirst(graph.userIds[heap.poll()]);
+            }
+            return result;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 同步数据库：追加新增的关注、必要时合并增量、校验边数、写快照
+     */
+    void sync() {
+        // 1.追加主键大于水位的关注
+        while (true) {
+            long watermark;
+            rwLock.readLock().lock();
+            try {
+                watermark = graph.watermark;
+            } finally {
+                rwLock.readLock().unlock();
+            }
+            List<Follow> follows = selectAfter(watermark);
+            if (follows.isEmpty()) {
+                break;
+            }
+            rwLock.writeLock().lock();
+            try {
+                for (Follow follow : follows) {
+                    graph.add(graph.ordinalOf(follow.getUserId()), graph.ordinalOf(follow.getFollowUserId()));
+                }
+                graph.watermark = Math.max(graph.watermark, follows.get(follows.size() - 1).getId());
+                modCount++;
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+            if (follows.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        // 2.校验边数，连续两次不一致说明有没有同步到的取关，整体重建
+        long count = followMapper.selectCount(null);
+        long edges;
+        rwLock.readLock().lock();
+        try {
+            edges = graph.edgeCount;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        if (count == edges) {
+            countMismatch = false;
+        } else if (!countMismatch) {
+            // 可能是刚提交、还没有修改关系图的关注，下次同步再确认
+            countMismatch = true;
+        } else {
+            log.info("关注关系图边数{}与数据库{}不一致，重建", edges, count);
+            rebuild();
+            countMismatch = false;
+        }
+        // 3.合并增量并写快照
+        rwLock.writeLock().lock();
+        try {
+            if (graph.deltaSize > COMPACT_THRESHOLD) {
+                graph = graph.compact();
+                modCount++;
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        saveSnapshot();
+    }
+
+    private List<Follow> selectAfter(long id) {
+        // select id, user_id, follow_user_id from tb_follow where id > ? order by id limit ?
+        return followMapper.selectList(new QueryWrapper<Follow>()
+                .select("id", "user_id", "follow_user_id")
+                .gt("id", id)
+                .orderByAsc("id")
+                .last("LIMIT " + LOAD_BATCH_SIZE));
+    }
+
+    /**
+     * 从数据库整体重建，按主键分批读取，构建完成后再替换，重建期间不影响查询
+     */
+    private void rebuild() {
+        Graph g = new Graph();
+        int[] src = new int[1024];
+        int[] dst = new int[1024];
+        int m = 0;
+        long lastId = 0;
+        while (true) {
+            List<Follow> follows = selectAfter(lastId);
+            for (Follow follow : follows) {
+                if (m == src.length) {
+                    src = Arrays.copyOf(src, m << 1);
+                    dst = Arrays.copyOf(dst, m << 1);
+                }
+                src[m] = g.ordinalOf(follow.getUserId());
+                dst[m] = g.ordinalOf(follow.getFollowUserId());
+                m++;
+            }
+            if (follows.isEmpty()) {
+                break;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+            if (follows.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        g.initBase(src, dst, m);
+        g.watermark = lastId;
+        rwLock.writeLock().lock();
+        try {
+            graph = g;
+            modCount++;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        log.debug("关注关系图重建完成，用户数：{}，关注数：{}", g.size, g.edgeCount);
+    }
+
+    /**
+     * 快照格式：魔数、水位、用户数n、n个用户id、关注数m、m对（关注者序号, 被关注者序号）
+     *      读锁内只取出要写的基础数组（有增量时先合并出一份新的），写文件在锁外，不阻塞关注、取关
+     *      先写临时文件再改名，写到一半宕机不会破坏上一份快照；同步线程和关闭时可能同时调用，方法加锁
+     */
+    private synchronized void saveSnapshot() {
+        // 1.读锁内取出快照内容：基础数组只会整体替换，不会原地修改，锁外可以安全读取
+        Graph g;
+        long mod;
+        rwLock.readLock().lock();
+        try {
+            if (modCount == savedModCount) {
+                return;
+            }
+            g = graph.deltaSize == 0 ? graph : graph.compact();
+            mod = modCount;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        long watermark = g.watermark;
+        long[] userIds = g.userIds;
+        int n = g.baseSize;
+        int[] outOff = g.outOff;
+        int[] outAdj = g.outAdj;
+        // 2.锁外写文件
+        try {
+            Path dir = snapshotPath.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(snapshotPath.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeLong(watermark);
+                out.writeInt(n);
+                for (int i = 0; i < n; i++) {
+                    out.writeLong(userIds[i]);
+                }
+                out.writeLong(outAdj.length);
+                for (int u = 0; u < n; u++) {
+                    for (int i = outOff[u]; i < outOff[u + 1]; i++) {
+                        out.writeInt(u);
+                        out.writeInt(outAdj[i]);
+                    }
+                }
+            }
+            Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("写入关注关系图快照失败", e);
+            return;
+        }
+        // 3.记录写入快照时的修改次数
+        rwLock.writeLock().lock();
+        try {
+            savedModCount = mod;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    boolean loadSnapshot() {
+        if (!Files.isRegularFile(snapshotPath)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                return false;
+            }
+            Graph g = new Graph();
+            long watermark = in.readLong();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                g.ordinalOf(in.readLong());
+            }
+            int m = (int) in.readLong();
+            int[] src = new int[m];
+            int[] dst = new int[m];
+            for (int i = 0; i < m; i++) {
+                src[i] = in.readInt();
+                dst[i] = in.readInt();
+            }
+            g.initBase(src, dst, m);
+            g.watermark = watermark;
+            rwLock.writeLock().lock();
+            try {
+                graph = g;
+                // 和快照一致，不需要重写
+                savedModCount = modCount;
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+            log.debug("从快照加载关注关系图，用户数：{}，关注数：{}", g.size, g.edgeCount);
+            return true;
+        } catch (IOException e) {
+            log.warn("读取关注关系图快照失败，从数据库重建", e);
+            return false;
+        }
+    }
+
+    /**
+     * 关注关系图：基础的CSR数组 + 增量
+     *      增量的约定：added中的边不在基础数组中，removed中的边一定在基础数组中
+     */
+    private static class Graph {
+        private final Map<Long, Integer> ordinals = new HashMap<>();
+        private long[] userIds = new long[64];
+        private int size;
+
+        // 基础数组覆盖的用户数，之后新增的用户只有增量
+        private int baseSize;
+        private int[] outOff = {0};
+        private int[] outAdj = new int[0];
+        private int[] inOff = {0};
+        private int[] inAdj = new int[0];
+
+        private final Map<Integer, Set<Integer>> outAdded = new HashMap<>();
+        private final Map<Integer, Set<Integer>> outRemoved = new HashMap<>();
+        private final Map<Integer, Set<Integer>> inAdded = new HashMap<>();
+        private final Map<Integer, Set<Integer>> inRemoved = new HashMap<>();
+        private int deltaSize;
+
+        private long edgeCount;
+        // 已经同步到的 tb_follow 最大主键
+        private long watermark;
+
+        int ordinalOf(long userId) {
+            Integer ordinal = ordinals.get(userId);
+            if (ordinal != null) {
+                return ordinal;
+            }
+            if (size == userIds.length) {
+                userIds = Arrays.copyOf(userIds, size << 1);
+            }
+            userIds[size] = userId;
+            ordinals.put(userId, size);
+            return size++;
+        }
+
+        void initBase(int[] src, int[] dst, int m) {
+            baseSize = size;
+            int[][] out = csr(size, src, dst, m);
+            int[][] in = csr(size, dst, src, m);
+            outOff = out[0];
+            outAdj = out[1];
+            inOff = in[0];
+            inAdj = in[1];
+            edgeCount = outAdj.length;
+        }
+
+        /**
+         * 由边列表构建CSR：计数、前缀和、填充、每行排序去重
+         */
+        private static int[][] csr(int n, int[] src, int[] dst, int m) {
+            int[] off = new int[n + 1];
+            for (int i = 0; i < m; i++) {
+                off[src[i] + 1]++;
+            }
+            for (int u = 0; u < n; u++) {
+                off[u + 1] += off[u];
+            }
+            int[] adj = new int[m];
+            int[] pos = Arrays.copyOf(off, n);
+            for (int i = 0; i < m; i++) {
+                adj[pos[src[i]]++] = dst[i];
+            }
+            // 排序并去掉重复的关注（历史数据可能有重复行）
+            int[] newOff = new int[n + 1];
+            int k = 0;
+            for (int u = 0; u < n; u++) {
+                Arrays.sort(adj, off[u], off[u + 1]);
+                for (int i = off[u]; i < off[u + 1]; i++) {
+                    if (i == off[u] || adj[i] != adj[i - 1]) {
+                        adj[k++] = adj[i];
+                    }
+                }
+                newOff[u + 1] = k;
+            }
+            return new int[][]{newOff, k == m ? adj : Arrays.copyOf(adj, k)};
+        }
+
+        int[] followees(int u) {
+            return merged(outOff, outAdj, outAdded.get(u), outRemoved.get(u), u);
+        }
+
+        int[] followers(int u) {
+            return merged(inOff, inAdj, inAdded.get(u), inRemoved.get(u), u);
+        }
+
+        private int[] merged(int[] off, int[] adj, Set<Integer> added, Set<Integer> removed, int u) {
+            int from = u < baseSize ? off[u] : 0;
+            int to = u < baseSize ? off[u + 1] : 0;
+            if (added == null && removed == null) {
+                return Arrays.copyOfRange(adj, from, to);
+            }
+            int[] result = new int[to - from + (added == null ? 0 : added.size())];
+            int k = 0;
+            for (int i = from; i < to; i++) {
+                if (removed == null || !removed.contains(adj[i])) {
+                    result[k++] = adj[i];
+                }
+            }
+            if (added != null) {
+                for (int v : added) {
+                    result[k++] = v;
+                }
+                Arrays.sort(result, 0, k);
+            }
+            return k == result.length ? result : Arrays.copyOf(result, k);
+        }
+
+        private boolean inBase(int[] off, int[] adj, int u, int v) {
+            return u < baseSize && Arrays.binarySearch(adj, off[u], off[u + 1], v) >= 0;
+        }
+
+        void add(int u, int v) {
+            if (addHalf(outOff, outAdj, outAdded, outRemoved, u, v)) {
+                addHalf(inOff, inAdj, inAdded, inRemoved, v, u);
+                edgeCount++;
+            }
+        }
+
+        void remove(int u, int v) {
+            if (removeHalf(outOff, outAdj, outAdded, outRemoved, u, v)) {
+                removeHalf(inOff, inAdj, inAdded, inRemoved, v, u);
+                edgeCount--;
+            }
+        }
+
+        private boolean addHalf(int[] off, int[] adj, Map<Integer, Set<Integer>> added,
+                                Map<Integer, Set<Integer>> removed, int u, int v) {
+            Set<Integer> rem = removed.get(u);
+            if (rem != null && rem.remove(v)) {
+                if (rem.isEmpty()) {
+                    removed.remove(u);
+                }
+                deltaSize--;
+                return true;
+            }
+            if (inBase(off, adj, u, v)) {
+                return false;
+            }
+            if (added.computeIfAbsent(u, k -> new HashSet<>()).add(v)) {
+                deltaSize++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean removeHalf(int[] off, int[] adj, Map<Integer, Set<Integer>> added,
+                                   Map<Integer, Set<Integer>> removed, int u, int v) {
+            Set<Integer> add = added.get(u);
+            if (add != null && add.remove(v)) {
+                if (add.isEmpty()) {
+                    added.remove(u);
+                }
+                deltaSize--;
+                return true;
+            }
+            if (!inBase(off, adj, u, v)) {
+                return false;
+            }
+            if (removed.computeIfAbsent(u, k -> new HashSet<>()).add(v)) {
+                deltaSize++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 把增量合并成新的基础数组
+         */
+        Graph compact() {
+            Graph g = new Graph();
+            for (int i = 0; i < size; i++) {
+                g.ordinalOf(userIds[i]);
+            }
+            int m = (int) edgeCount;
+            int[] src = new int[m];
+            int[] dst = new int[m];
+            int k = 0;
+            for (int u = 0; u < size; u++) {
+                for (int v : followees(u)) {
+                    src[k] = u;
+                    dst[k] = v;
+                    k++;
+                }
+            }
+            g.initBase(src, dst, k);
+            g.watermark = watermark;
+            return g;
+        }
+    }
+}
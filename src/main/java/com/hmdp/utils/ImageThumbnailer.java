@@ -0,0 +1,251 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 博客图片的缩略图生成
+ *      上传成功后提交任务，后台线程用JDK自带的ImageIO生成 IMAGE_RENDITION_WIDTHS 中的几种宽度，和原图放在同一个目录：
+ *          /blogs/{d1}/{d2}/{hash}.jpg -> /blogs/{d1}/{d2}/{hash}_w240.jpg
+ *      线程数和队列长度固定，上传高峰时排不上队的任务直接丢弃（缩略图不存在时前端使用原图），不会占满CPU
+ *      已经存在的缩略图不会重复生成（内容相同的图片只保存一份，重复上传不会产生新的任务）
+ */
+@Slf4j
+@Component
+public class ImageThumbnailer {
+
+    // 解码前先读取尺寸，像素数超过该值的图片不处理，避免解码时占用过多内存
+    private static final long MAX_PIXELS = 40_000_000L;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            SystemConstants.IMAGE_THUMBNAIL_THREADS, SystemConstants.IMAGE_THUMBNAIL_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(SystemConstants.IMAGE_THUMBNAIL_QUEUE_SIZE));
+
+    // 排队中或正在处理的图片，同一张图片只保留一个任务
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * 提交缩略图任务，不阻塞上传请求
+     * @param fileName 上传接口返回的文件名 /blogs/{d1}/{d2}/{文件名}
+     */
+    public void submit(String fileName) {
+        if (!pending.add(fileName)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(fileName);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("生成缩略图异常，{}", fileName, e);
+                } finally {
+                    pending.remove(fileName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(fileName);
+            rejected.incrementAndGet();
+            log.warn("缩略图任务队列已满，丢弃任务，{}", fileName);
+        }
+    }
+
+    /**
+     * 缩略图的访问地址，还没有生成的使用原图
+     * @return 宽度 -> 文件名
+     */
+    public Map<Integer, String> renditionsOf(String fileName) {
+        Map<Integer, String> renditions = new LinkedHashMap<>();
+        for (int width : SystemConstants.IMAGE_RENDITION_WIDTHS) {
+            String rendition = renditionName(fileName, width);
+            renditions.put(width, Files.exists(resolve(rendition)) ? rendition : fileName);
+        }
+        return renditions;
+    }
+
+    /**
+     * 删除原图的所有缩略图
+     */
+    public void deleteRenditions(String fileName) throws IOException {
+        for (int width : SystemConstants.IMAGE_RENDITION_WIDTHS) {
+            Files.deleteIfExists(resolve(renditionName(fileName, width)));
+        }
+    }
+
+    /**
+     * 队列情况，用于监控上传高峰时的积压
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("queued", (long) executor.getQueue().size());
+        stats.put("active", (long) executor.getActiveCount());
+        stats.put("remainingCapacity", (long) executor.getQueue().remainingCapacity());
+        stats.put("generated", generated.get());
+        stats.put("skipped", skipped.get());
+        stats.put("rejected", rejected.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+    private void generate(String fileName) throws IOException {
+        String format = formatOf(fileName);
+        Path original = resolve(fileName);
+        // 1.找出还没有生成的宽度，全部已生成就不用解码原图
+        List<Integer> widths = new ArrayList<>();
+        for (int width : SystemConstants.IMAGE_RENDITION_WIDTHS) {
+            if (!Files.exists(resolve(renditionName(fileName, width)))) {
+                widths.add(width);
+            }
+        }
+        if (format == null || widths.isEmpty() || !Files.isRegularFile(original)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        // 2.读取尺寸，过大的图片不处理
+        BufferedImage image = read(original);
+        if (image == null) {
+            skipped.incrementAndGet();
+            return;
+        }
+        // 3.从大到小依次缩放，每次在上一张的基础上缩小，比每次从原图缩小更快
+        widths.sort(Comparator.reverseOrder());
+        BufferedImage source = image;
+        for (int width : widths) {
+            Path target = resolve(renditionName(fileName, width));
+            if (width >= image.getWidth()) {
+                // 原图比目标宽度还小，不放大，直接复制原图
+                copy(original, target);
+                continue;
+            }
+            // jpg和bmp没有透明通道
+            source = scale(source, width, !"png".equals(format));
+            write(source, format, target);
+            generated.incrementAndGet();
+        }
+    }
+
+    private static BufferedImage read(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) {
+                    log.warn("图片尺寸过大，不生成缩略图，{}", file);
+                    return null;
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 缩放到指定宽度，等比例；每次最多缩小一半，多次双线性插值，质量接近高质量缩放但速度快得多
+     */
+    private static BufferedImage scale(BufferedImage source, int width, boolean opaque) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        do {
+            w = Math.max(w / 2, width);
+            h = Math.max(h / 2, height);
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                if (opaque) {
+                    // 没有透明通道的格式，透明部分填充白色
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, w, h);
+                }
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    // 先写临时文件再改名，读取方不会读到写了一半的缩略图
+    private static void write(BufferedImage image, String format, Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), "thumb-", ".tmp");
+        try {
+            if (!ImageIO.write(image, format, tmp.toFile())) {
+                throw new IOException("不支持的图片格式：" + format);
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copy(Path original, Path target) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), "thumb-", ".tmp");
+        try {
+            Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // 只处理ImageIO能够写出的格式，gif等格式直接使用原图
+    private static String formatOf(String fileName) {
+        String suffix = StrUtil.subAfter(fileName, ".", true).toLowerCase();
+        switch (suffix) {
+            case "jpg":
+            case "jpeg":
+                return "jpg";
+            case "png":
+            case "bmp":
+                return suffix;
+            default:
+                return null;
+        }
+    }
+
+    private static String renditionName(String fileName, int width) {
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName + "_w" + width : fileName.substring(0, dot) + "_w" + width + fileName.substring(dot);
+    }
+
+    private static Path resolve(String fileName) {
+        return Paths.get(SystemConstants.IMAGE_UPLOAD_DIR, StrUtil.removePrefix(fileName, "/"));
+    }
+}
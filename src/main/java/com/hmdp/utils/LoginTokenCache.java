@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录token的本地缓存
+ *      每个请求都要根据token查询登录用户，本地缓存 LOGIN_TOKEN_LOCAL_TTL 毫秒，缓存有效期内不访问Redis
+ *      token的有效期不再每次请求都刷新：记录token在Redis中的过期时间，剩余时间少于 LOGIN_USER_REFRESH_THRESHOLD 分钟才EXPIRE，
+ *          一个token在一个实例上最多每 (LOGIN_USER_TTL - LOGIN_USER_REFRESH_THRESHOLD) 分钟刷新一次
+ *      登出时删除Redis中的token，并通过 login:revoke 频道通知所有实例删除本地缓存；通知丢失时最多在本地缓存过期前仍然有效
+ */
+@Slf4j
+@Component
+public class LoginTokenCache {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RTopic revokeTopic;
+
+    // token -> 登录用户
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    public LoginTokenCache(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.revokeTopic = redissonClient.getTopic(LOGIN_REVOKE_CHANNEL, StringCodec.INSTANCE);
+    }
+
+    @PostConstruct
+    private void init() {
+        // 订阅登出通知，删除本地缓存
+        revokeTopic.addListener(String.class, (channel, token) -> cache.remove(token));
+    }
+
+    /**
+     * 根据token查询登录用户，必要时刷新token的有效期
+     * @return 登录用户，token不存在或已过期时返回null
+     */
+    public UserDTO get(String token) {
+        long now = System.currentTimeMillis();
+        // 1.查询本地缓存
+        Entry entry = cache.get(token);
+        if (entry == null || entry.cachedUntil < now) {
+            // 2.本地缓存未命中，查询Redis
+            entry = load(token, now);
+            if (entry == null) {
+                cache.remove(token);
+                return null;
+            }
+            put(token, entry, now);
+        }
+        // 3.剩余有效期不足时才刷新
+        if (entry.expireAt - now < TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_THRESHOLD)) {
+            entry.expireAt = now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+            stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        }
+        return entry.user;
+    }
+
+    /**
+     * 登出：删除Redis中的token，通知所有实例删除本地缓存
+     */
+    public void revoke(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        cache.remove(token);
+        revokeTopic.publish(token);
+    }
+
+    /**
+     * 一次管道查询用户信息和token的剩余有效期 HGETALL + PTTL
+     */
+    private Entry load(String token, long now) {
+        String key = LOGIN_USER_KEY + token;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(key);
+            conn.pTtl(key);
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> userMap = (Map<Object, Object>) results.get(0);
+        Long ttl = (Long) results.get(1);
+        if (userMap == null || userMap.isEmpty() || ttl == null || ttl == -2) {
+            return null;
+        }
+        UserDTO user = BeanConverter.toUserDTO(userMap);
+        // 没有过期时间（-1）时按已经需要刷新处理
+        long expireAt = ttl < 0 ? now : now + ttl;
+        return new Entry(user, now + SystemConstants.LOGIN_TOKEN_LOCAL_TTL, expireAt);
+    }
+
+    private void put(String token, Entry entry, long now) {
+        if (cache.size() >= SystemConstants.LOGIN_TOKEN_CACHE_MAX_SIZE) {
+            // 先清理本地已过期的，仍然超过上限就不缓存，直接走Redis
+            cache.values().removeIf(e -> e.cachedUntil < now);
+            if (cache.size() >= SystemConstants.LOGIN_TOKEN_CACHE_MAX_SIZE) {
+                return;
+            }
+        }
+        cache.put(token, entry);
+    }
+
+    private static class Entry {
+        private final UserDTO user;
+        // 本地缓存的过期时间
+        private final long cachedUntil;
+        // token在Redis中的过期时间（估计值，本实例刷新时更新）
+        private volatile long expireAt;
+
+        Entry(UserDTO user, long cachedUntil, long expireAt) {
+            this.user = user;
+            this.cachedUntil = cachedUntil;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -5,18 +5,76 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 30L;
+    public static final Long LOGIN_USER_REFRESH_THRESHOLD = 20L;
+    public static final String LOGIN_REVOKE_CHANNEL = "login:revoke";
+    public static final String LOGIN_DENY_KEY = "login:deny";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 10L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_BLOG_DETAIL_TTL = 30L;
+    public static final String CACHE_BLOG_DETAIL_KEY = "cache:blog:detail:";
+    public static final Long CACHE_BLOG_LIKES_TTL = 30L;
+    public static final String CACHE_BLOG_LIKES_KEY = "cache:blog:likes:";
+    public static final Long CACHE_COMMENT_TTL = 24L;
+    public static final String CACHE_COMMENT_KEY = "cache:comment:";
+    public static final Long CACHE_FOLLOW_COUNT_TTL = 30L;
+    public static final String CACHE_FOLLOW_COUNT_KEY = "cache:follow:count:";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_BLOG_LIKED_FLUSH_KEY = "lock:blog:liked:flush";
+    public static final String LOCK_BLOG_HOT_REBUILD_KEY = "lock:blog:hot:rebuild";
+    public static final String LOCK_FEED_EVICT_KEY = "lock:feed:evict";
+    public static final String LOCK_UV_ROLLUP_KEY = "lock:uv:rollup";
+    public static final String LOCK_UPLOAD_KEY = "lock:upload:";
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "lock:sign:archive";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKE_COUNT_KEY = "blog:like:count:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:delta:liked";
+    public static final String BLOG_LIKED_FLUSHING_KEY = "blog:delta:liked:flushing";
+    public static final Long BLOG_LIKED_FLUSH_INTERVAL = 5L;
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_EPOCH_KEY = "blog:hot:epoch";
+    public static final Long BLOG_HOT_REBUILD_INTERVAL = 6L;
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FANS_KEY = "fans:";
+    public static final String FOLLOWS_LOADED = "0";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_ACTIVE_KEY = "feed:active";
+    public static final Long FEED_EVICT_INTERVAL = 1L;
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHOR_KEY = "feed:big";
+    public static final String FEED_FANOUT_QUEUE = "stream.feed";
+    public static final String FEED_FANOUT_PROGRESS_KEY = "feed:fanout:progress";
+    public static final String COMMENT_ID_KEY = "comment:id";
+    public static final String COMMENT_ROOT_KEY = "comments:root:";
+    public static final String COMMENT_REPLY_KEY = "comments:reply:";
+    public static final Long COMMENT_INDEX_TTL = 72L;
+    public static final String COMMENT_QUEUE = "stream.comments";
+    public static final String UV_KEY = "uv:";
+    public static final String UV_TOUCHED_KEY = "uv:touched:";
+    public static final String UV_ROLLED_KEY = "uv:rolled:";
+    public static final Long UV_FLUSH_INTERVAL = 300L;
+    public static final Long UV_ROLLUP_INTERVAL = 60L;
+    public static final Long UV_DAY_TTL = 35L;
+    public static final Long UV_WEEK_TTL = 60L;
+    public static final Long UV_MONTH_TTL = 400L;
+    public static final String UPLOAD_REF_KEY = "upload:ref:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String USER_SIGN_STREAK_KEY = "sign:streak:";
+    public static final Long USER_SIGN_STREAK_TTL = 2L;
+    public static final Long USER_SIGN_ARCHIVE_INTERVAL = 6L;
+    public static final Long USER_SIGN_ARCHIVED_TTL = 1L;
+    public static final Long USER_SIGN_RESTORE_TTL = 1L;
 }
@@ -1,18 +1,11 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 
 
 /**
@@ -27,10 +20,13 @@ import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
  */
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginTokenCache loginTokenCache;
+
+    private SignedTokenManager signedTokenManager;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(LoginTokenCache loginTokenCache, SignedTokenManager signedTokenManager) {
+        this.loginTokenCache = loginTokenCache;
+        this.signedTokenManager = signedTokenManager;
     }
 
     @Override
@@ -42,21 +38,20 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
             // 拦截登录交由下一个拦截器去处理
             return true;
         }
-        // 2. 基于token，获取在redis中的用户
-        String key  = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        // 2.基于token获取登录用户
+        //   签名token（无状态模式）：本地校验签名，剩余有效期不足时在响应头中返回续期的token
+        //   普通token：优先读取本地缓存，剩余有效期不足时才刷新token有效期
+        UserDTO userDTO = SignedTokenManager.isSigned(token)
+                ? signedTokenManager.verify(token, response)
+                : loginTokenCache.get(token);
         // 3.判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             // 拦截登录交由下一个拦截器去处理
             return true;
         }
-        // 5.将查询到的hash数据转为UserDTO（数据脱敏）
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        // 6.存在，保存用户信息到 ThreadLocal
+        // 4.存在，保存用户信息到 ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 7.刷新token有效期
-        stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.MINUTES);
-        // 8.放行
+        // 5.放行
         return true;
     }
 
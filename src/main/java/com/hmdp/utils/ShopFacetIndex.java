@@ -0,0 +1,331 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺多维度筛选的内存位图索引
+ *      维度：商铺类型、商圈、价格区间、评分区间、营业时段
+ *      每个维度的每个取值对应一个BitSet，第i位为1表示第i个商铺（内部序号）具备该取值
+ *      多条件筛选 = 多个BitSet做与运算，计数 = cardinality()，都是纯内存的位运算，不需要访问数据库
+ *
+ * 营业时间在建索引时就解析好，把一天切成 48 个半小时的时段，每个时段一个BitSet，"营业中"的查询直接取当前时段的位图
+ * 商铺新增、修改时调用 upsert 增量刷新该商铺的所有位
+ */
+@Slf4j
+@Component
+public class ShopFacetIndex {
+
+    public static final String FACET_TYPE = "type";
+    public static final String FACET_AREA = "area";
+    public static final String FACET_PRICE = "price";
+    public static final String FACET_SCORE = "score";
+
+    private static final String[] FACETS = {FACET_TYPE, FACET_AREA, FACET_PRICE, FACET_SCORE};
+
+    /**
+     * 价格区间的上界（不含），均价落在 [PRICE_BANDS[i-1], PRICE_BANDS[i]) 中就属于第i档，超过最后一个上界的属于最后一档
+     */
+    private static final long[] PRICE_BANDS = {50, 100, 200, 500};
+
+    /**
+     * 一天切分的时段数，每个时段半小时
+     */
+    private static final int SLOT_COUNT = 48;
+    private static final int SLOT_MINUTES = 30;
+
+    private final ShopMapper shopMapper;
+
+    // 读多写少，用读写锁保护下面的所有结构
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    // 维度 -> 取值 -> 位图
+    private final Map<String, Map<String, BitSet>> facets = new HashMap<>();
+    // 每个时段一个位图
+    private final BitSet[] openSlots = new BitSet[SLOT_COUNT];
+    // 所有有效商铺的位图（删除的商铺对应的位会被清空）
+    private final BitSet all = new BitSet();
+    // 商铺id与内部序号的双向映射，序号是连续的，保证位图紧凑
+    private final Map<Long, Integer> ordinals = new HashMap<>();
+    private long[] shopIds = new long[64];
+    // 每个商铺当前所在的各维度取值，更新时用来清除旧的位
+    private final Map<Long, String[]> shopFacetValues = new HashMap<>();
+
+    public ShopFacetIndex(ShopMapper shopMapper) {
+        this.shopMapper = shopMapper;
+        for (String facet : FACETS) {
+            facets.put(facet, new HashMap<>());
+        }
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            openSlots[i] = new BitSet();
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        List<Shop> shops = shopMapper.selectList(null);
+        for (Shop shop : shops) {
+            upsert(shop);
+        }
+        log.debug("商铺筛选索引构建完成，商铺数量：{}", shops.size());
+    }
+
+    /**
+     * 新增或刷新一个商铺的索引
+     * @param shop 完整的商铺信息（需要从数据库重新查出，不能是只带了部分字段的更新参数）
+     */
+    public void upsert(Shop shop) {
+        if (shop == null || shop.getId() == null) {
+            return;
+        }
+        String[] values = {
+                shop.getTypeId() == null ? null : shop.getTypeId().toString(),
+                StrUtil.emptyToNull(shop.getArea()),
+                shop.getAvgPrice() == null ? null : String.valueOf(priceBand(shop.getAvgPrice())),
+                shop.getScore() == null ? null : String.valueOf(scoreBand(shop.getScore()))
+        };
+        BitSet slots = parseOpenHours(shop.getOpenHours());
+        rwLock.writeLock().lock();
+        try {
+            int ordinal = ordinalOf(shop.getId());
+            clearBits(shop.getId(), ordinal);
+            for (int i = 0; i < FACETS.length; i++) {
+                if (values[i] != null) {
+                    facets.get(FACETS[i]).computeIfAbsent(values[i], k -> new BitSet()).set(ordinal);
+                }
+            }
+            for (int slot = slots.nextSetBit(0); slot >= 0; slot = slots.nextSetBit(slot + 1)) {
+                openSlots[slot].set(ordinal);
+            }
+            all.set(ordinal);
+            shopFacetValues.put(shop.getId(), values);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 从索引中移除商铺，序号保留不复用
+     */
+    public void remove(Long shopId) {
+        rwLock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.get(shopId);
+            if (ordinal != null) {
+                clearBits(shopId, ordinal);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按条件筛选商铺，条件之间是“且”的关系，值为null的条件不参与筛选
+     * @param filters 维度 -> 取值，例如 {"type": "1", "price": "1"}
+     * @param openAt 需要在该时间营业，为null则不限
+     * @return 符合条件的商铺id（按id升序）
+     */
+    public List<Long> query(Map<String, String> filters, LocalTime openAt) {
+        rwLock.readLock().lock();
+        try {
+            BitSet result = match(filters, openAt);
+            List<Long> ids = new ArrayList<>(result.cardinality());
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                ids.add(shopIds[i]);
+            }
+            ids.sort(null);
+            return ids;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 在当前筛选条件下，统计每个维度各个取值下的商铺数量，用于前端展示筛选项后面的数量
+     *      统计某个维度时不带上该维度自身的条件，这样切换同一维度的取值时数量依然有意义
+     * @return 维度 -> (取值 -> 数量)
+     */
+    public Map<String, Map<String, Integer>> count(Map<String, String> filters, LocalTime openAt) {
+        rwLock.readLock().lock();
+        try {
+            Map<String, Map<String, Integer>> counts = new LinkedHashMap<>(FACETS.length);
+            for (String facet : FACETS) {
+                Map<String, String> others = new HashMap<>(filters);
+                others.remove(facet);
+                BitSet base = match(others, openAt);
+                Map<String, Integer> valueCounts = new TreeMap<>();
+                for (Map.Entry<String, BitSet> entry : facets.get(facet).entrySet()) {
+                    BitSet bits = (BitSet) entry.getValue().clone();
+                    bits.and(base);
+                    int c = bits.cardinality();
+                    if (c > 0) {
+                        valueCounts.put(entry.getKey(), c);
+                    }
+                }
+                counts.put(facet, valueCounts);
+            }
+            return counts;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 价格区间：0:<50  1:50~99  2:100~199  3:200~499  4:>=500
+     */
+    public static int priceBand(long avgPrice) {
+        int band = 0;
+        while (band < PRICE_BANDS.length && avgPrice >= PRICE_BANDS[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    /**
+     * 评分区间：评分乘10保存，例如 47 -> 4
+     */
+    public static int scoreBand(int score) {
+        return score / 10;
+    }
+
+    /**
+     * 解析营业时间，例如 10:00-22:00、10:00-02:00（跨天）、11:00-13:50,17:00-20:50（分段营业），返回营业的时段位图
+     *      多段营业时间用逗号分隔，各段的时段取并集
+     *      解析失败时返回空位图，即认为该商铺不参与“营业中”的筛选
+     */
+    static BitSet parseOpenHours(String openHours) {
+        BitSet slots = new BitSet(SLOT_COUNT);
+        if (StrUtil.isBlank(openHours)) {
+            return slots;
+        }
+        for (String range : openHours.trim().split("[,，]")) {
+            BitSet rangeSlots = parseRange(range);
+            if (rangeSlots == null) {
+                // 任意一段格式错误，整体按解析失败处理
+                return new BitSet(SLOT_COUNT);
+            }
+            slots.or(rangeSlots);
+        }
+        return slots;
+    }
+
+    /**
+     * 解析一段营业时间 HH:mm-HH:mm
+     * @return 营业的时段位图，格式错误返回null
+     */
+    private static BitSet parseRange(String range) {
+        String[] parts = range.trim().split("-");
+        if (parts.length != 2) {
+            return null;
+        }
+        int start = toMinutes(parts[0]);
+        int end = toMinutes(parts[1]);
+        if (start < 0 || end < 0) {
+            return null;
+        }
+        BitSet slots = new BitSet(SLOT_COUNT);
+        if (start == end) {
+            // 24小时营业
+            slots.set(0, SLOT_COUNT);
+            return slots;
+        }
+        // 半小时时段内只要有营业就算营业，结束时间向上取整
+        int from = start / SLOT_MINUTES;
+        int to = (end + SLOT_MINUTES - 1) / SLOT_MINUTES;
+        if (start < end) {
+            slots.set(from, to);
+        } else {
+            // 跨天营业：今天的 [from, 48) 加上 [0, to)
+            slots.set(from, SLOT_COUNT);
+            slots.set(0, to);
+        }
+        return slots;
+    }
+
+    private static int toMinutes(String hhmm) {
+        String[] hm = hhmm.trim().split(":");
+        if (hm.length != 2) {
+            return -1;
+        }
+        try {
+            int h = Integer.parseInt(hm[0]);
+            int m = Integer.parseInt(hm[1]);
+            if (h == 24 && m == 0) {
+                // 24:00 等同于 00:00，其他超过23点的时间都不合法
+                return 0;
+            }
+            if (h < 0 || h > 23 || m < 0 || m >= 60) {
+                return -1;
+            }
+            return h * 60 + m;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // 调用方需要持有读锁
+    private BitSet match(Map<String, String> filters, LocalTime openAt) {
+        BitSet result = (BitSet) all.clone();
+        for (String facet : FACETS) {
+            String value = filters.get(facet);
+            if (value == null) {
+                continue;
+            }
+            BitSet bits = facets.get(facet).get(value);
+            if (bits == null) {
+                return new BitSet();
+            }
+            result.and(bits);
+        }
+        if (openAt != null) {
+            result.and(openSlots[(openAt.getHour() * 60 + openAt.getMinute()) / SLOT_MINUTES]);
+        }
+        return result;
+    }
+
+    // 调用方需要持有写锁
+    private int ordinalOf(Long shopId) {
+        Integer ordinal = ordinals.get(shopId);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        ordinal = ordinals.size();
+        if (ordinal == shopIds.length) {
+            shopIds = Arrays.copyOf(shopIds, shopIds.length << 1);
+        }
+        shopIds[ordinal] = shopId;
+        ordinals.put(shopId, ordinal);
+        return ordinal;
+    }
+
+    // 调用方需要持有写锁
+    private void clearBits(Long shopId, int ordinal) {
+        String[] old = shopFacetValues.remove(shopId);
+        if (old != null) {
+            for (int i = 0; i < FACETS.length; i++) {
+                if (old[i] == null) {
+                    continue;
+                }
+                BitSet bits = facets.get(FACETS[i]).get(old[i]);
+                if (bits != null) {
+                    bits.clear(ordinal);
+                    if (bits.isEmpty()) {
+                        facets.get(FACETS[i]).remove(old[i]);
+                    }
+                }
+            }
+        }
+        for (BitSet slot : openSlots) {
+            slot.clear(ordinal);
+        }
+        all.clear(ordinal);
+    }
+}
@@ -0,0 +1,225 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 签到bitmap的归档与恢复
+ *      Redis中只保留最近 SIGN_KEEP_MONTHS 个月的签到bitmap，后台任务用SCAN找出更早月份的 sign:{userId}:{yyyyMM}，
+ *      按批用管道读取，解码成 tb_sign 的行批量写入，写入成功后给这些key设置过期时间
+ *      查询更早月份时Redis中没有key，从 tb_sign 查出后恢复成bitmap写回Redis（带过期时间），没有签到的月份也写入全0的bitmap，避免重复查询数据库
+ */
+@Slf4j
+@Component
+public class SignArchiver {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final SignMapper signMapper;
+
+    private static final ScheduledExecutorService SIGN_ARCHIVE_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    public SignArchiver(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient, SignMapper signMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.signMapper = signMapper;
+    }
+
+    @PostConstruct
+    private void init() {
+        SIGN_ARCHIVE_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                archive();
+            } catch (Exception e) {
+                log.error("归档签到记录异常", e);
+            }
+        }, 1, USER_SIGN_ARCHIVE_INTERVAL * 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 是否是已经归档（不再保留在Redis中）的月份
+     */
+    public static boolean isArchived(YearMonth month) {
+        return month.isBefore(YearMonth.now().minusMonths(SystemConstants.SIGN_KEEP_MONTHS - 1));
+    }
+
+    /**
+     * 从 tb_sign 恢复一个用户若干个月的签到bitmap，并写回Redis
+     * @return 月份 -> 整字bitmap（见 SignBitmaps）
+     */
+    public Map<YearMonth, Integer> restore(Long userId, List<YearMonth> months) {
+        Map<YearMonth, Integer> result = new HashMap<>(months.size() * 2);
+        if (months.isEmpty()) {
+            return result;
+        }
+        for (YearMonth month : months) {
+            result.put(month, 0);
+        }
+        // 1.一次查询所有月份 select date from tb_sign where user_id = ? and date between ? and ?
+        YearMonth first = Collections.min(months);
+        YearMonth last = Collections.max(months);
+        List<Sign> signs = signMapper.selectList(new QueryWrapper<Sign>()
+                .select("date")
+                .eq("user_id", userId)
+                .between("date", first.atDay(1), last.atEndOfMonth()));
+        for (Sign sign : signs) {
+            YearMonth month = YearMonth.from(sign.getDate());
+            result.computeIfPresent(month, (k, bits) -> bits | SignBitmaps.bitOf(sign.getDate().getDayOfMonth()));
+        }
+        // 2.管道写回Redis，带过期时间，过期后再从数据库恢复
+        long ttl = TimeUnit.DAYS.toSeconds(USER_SIGN_RESTORE_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (YearMonth month : months) {
+                byte[] key = signKey(userId, month).getBytes(StandardCharsets.UTF_8);
+                connection.stringCommands().setEx(key, ttl, SignBitmaps.toBitmap(result.get(month)));
+            }
+            return null;
+        });
+        return result;
+    }
+
+    /**
+     * 归档已经结束、超出保留期的月份
+     *      SCAN sign:* 分批收集key，每批：管道 GET + PTTL，跳过已经设置了过期时间的（已归档或恢复出来的），
+     *      解码后批量写入 tb_sign，写入成功后再 EXPIRE，中途失败重跑时重复的行被唯一索引忽略
+     */
+    private void archive() {
+        RLock lock = redissonClient.getLock(LOCK_SIGN_ARCHIVE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // RedisTemplate 没有键空间的SCAN，在连接上执行，游标在回调内用完
+            Integer archived = stringRedisTemplate.execute((RedisCallback<Integer>) connection -> {
+                List<String> keys = new ArrayList<>(SystemConstants.SIGN_ARCHIVE_BATCH_SIZE);
+                int count = 0;
+                try (Cursor<byte[]> cursor = connection.keyCommands().scan(ScanOptions.scanOptions()
+                        .match(USER_SIGN_KEY + "*").count(SystemConstants.SIGN_ARCHIVE_BATCH_SIZE).build())) {
+                    while (cursor.hasNext()) {
+                        String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                        YearMonth month = monthOf(key);
+                        if (month == null || !isArchived(month)) {
+                            continue;
+                        }
+                        keys.add(key);
+                        if (keys.size() >= SystemConstants.SIGN_ARCHIVE_BATCH_SIZE) {
+                            count += archiveBatch(keys);
+                            keys.clear();
+                        }
+                    }
+                }
+                if (!keys.isEmpty()) {
+                    count += archiveBatch(keys);
+                }
+                return count;
+            });
+            if (archived != null && archived > 0) {
+                log.debug("归档签到bitmap完成，共{}个", archived);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int archiveBatch(List<String> keys) {
+        // 1.管道读取bitmap和剩余有效期
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                connection.stringCommands().get(rawKey);
+                connection.keyCommands().pTtl(rawKey);
+            }
+            return null;
+        }, RedisSerializer.byteArray());
+        // 2.解码成签到记录
+        List<String> archiveKeys = new ArrayList<>(keys.size());
+        List<Sign> signs = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            byte[] bitmap = (byte[]) results.get(2 * i);
+            Long ttl = (Long) results.get(2 * i + 1);
+            if (bitmap == null || ttl == null || ttl != -1) {
+                // 已经有过期时间，说明已归档或是恢复出来的
+                continue;
+            }
+            String key = keys.get(i);
+            archiveKeys.add(key);
+            Long userId = Long.valueOf(key.substring(USER_SIGN_KEY.length(), key.lastIndexOf(':')));
+            YearMonth month = monthOf(key);
+            for (int day : SignBitmaps.days(SignBitmaps.toBits(bitmap))) {
+                LocalDate date = month.atDay(day);
+                signs.add(new Sign()
+                        .setUserId(userId)
+                        .setYear(date.getYear())
+                        .setMonth(date.getMonthValue())
+                        .setDate(date)
+                        .setIsBackup(false));
+            }
+        }
+        // 3.批量写入，每条INSERT最多 SIGN_INSERT_BATCH_SIZE 行
+        for (int from = 0; from < signs.size(); from += SystemConstants.SIGN_INSERT_BATCH_SIZE) {
+            signMapper.insertIgnoreBatch(signs.subList(from, Math.min(from + SystemConstants.SIGN_INSERT_BATCH_SIZE, signs.size())));
+        }
+        // 4.写入成功后设置过期时间，留一段时间给正在进行的查询
+        long ttl = TimeUnit.DAYS.toSeconds(USER_SIGN_ARCHIVED_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : archiveKeys) {
+                connection.keyCommands().expire(key.getBytes(StandardCharsets.UTF_8), ttl);
+            }
+            return null;
+        });
+        return archiveKeys.size();
+    }
+
+    /**
+     * 从 sign:{userId}:{yyyyMM} 解析月份，不是签到bitmap的key（例如 sign:streak:{yyyyMMdd}）返回null
+     */
+    private static YearMonth monthOf(String key) {
+        String[] parts = key.split(":");
+        if (parts.length != 3 || parts[2].length() != 6 || !isDigits(parts[1]) || !isDigits(parts[2])) {
+            return null;
+        }
+        return YearMonth.parse(parts[2], MONTH_FORMATTER);
+    }
+
+    private static boolean isDigits(String s) {
+        if (s.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (!Character.isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+}
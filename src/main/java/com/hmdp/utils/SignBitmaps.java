@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 签到bitmap的位运算
+ *      Redis中每个用户每月一个bitmap sign:{userId}:{yyyyMM}，第d天是第d-1位（从第一个字节的最高位开始），一个月最多31位
+ *      GET出的字节按大端拼成一个int后，第d天正好是int的第 31-(d-1) 位（从最低位数起），
+ *      之后的统计都是对这个int做整字运算：右移对齐、取反后数末尾的0（连续签到）、bitCount（签到天数），不需要逐位循环
+ */
+public final class SignBitmaps {
+
+    private SignBitmaps() {
+    }
+
+    /**
+     * Redis中的bitmap（最多4个字节） -> int，第d天在第 32-d 位
+     */
+    public static int toBits(byte[] bitmap) {
+        int bits = 0;
+        if (bitmap == null) {
+            return 0;
+        }
+        for (int i = 0; i < 4; i++) {
+            bits = (bits << 8) | (i < bitmap.length ? bitmap[i] & 0xFF : 0);
+        }
+        return bits;
+    }
+
+    /**
+     * int -> Redis中的bitmap，SET之后和逐天SETBIT的结果相同
+     */
+    public static byte[] toBitmap(int bits) {
+        return new byte[]{(byte) (bits >>> 24), (byte) (bits >>> 16), (byte) (bits >>> 8), (byte) bits};
+    }
+
+    /**
+     * 第day天签到后对应的位
+     */
+    public static int bitOf(int day) {
+        return 1 << (32 - day);
+    }
+
+    public static boolean isSigned(int bits, int day) {
+        return (bits & bitOf(day)) != 0;
+    }
+
+    /**
+     * 截止到第day天（含）向前连续签到的天数
+     *      右移使第day天对齐到最低位，取反后末尾0的个数就是末尾连续1的个数
+     */
+    public static int streakEndingAt(int bits, int day) {
+        if (day <= 0) {
+            return 0;
+        }
+        int aligned = bits >>> (32 - day);
+        // 高于day的位移出后是0，取反后是1，结果不会超过day
+        return Integer.numberOfTrailingZeros(~aligned);
+    }
+
+    /**
+     * 前days天的签到天数
+     */
+    public static int count(int bits, int days) {
+        return days <= 0 ? 0 : Integer.bitCount(bits >>> (32 - days));
+    }
+
+    /**
+     * 最长连续签到天数：每次 x &= x << 1 都会把每一段连续的1缩短一位，能做多少次就是最长的一段
+     */
+    public static int longestStreak(int bits) {
+        int longest = 0;
+        while (bits != 0) {
+            bits &= bits << 1;
+            longest++;
+        }
+        return longest;
+    }
+
+    /**
+     * 签到的日期（几号）
+     */
+    public static List<Integer> days(int bits) {
+        List<Integer> days = new ArrayList<>(Integer.bitCount(bits));
+        while (bits != 0) {
+            // 最高位的1是最早的一天
+            int day = Integer.numberOfLeadingZeros(bits) + 1;
+            days.add(day);
+            bits &= ~bitOf(day);
+        }
+        return days;
+    }
+}
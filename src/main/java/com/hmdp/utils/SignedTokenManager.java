@@ -0,0 +1,247 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.HexUtil;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 无状态登录token（hmdp.login.mode = stateless 时启用）
+ *      token = base64url(用户信息 + 会话id + 过期时间) + "." + base64url(HMAC-SHA256签名)，校验只需要本地计算签名，不访问Redis
+ *      剩余有效期少于 LOGIN_USER_REFRESH_THRESHOLD 分钟时，在响应头 RENEW_HEADER 中返回续期后的新token（会话id不变），前端替换即可
+ *      登出时把会话id加入黑名单：写入Redis的 login:deny（分数是token的过期时间），并广播给所有实例，
+ *          每个实例在本地保存一份黑名单，定时从Redis重新加载（补上丢失的通知）并清理已经过期的会话
+ */
+@Slf4j
+@Component
+public class SignedTokenManager {
+
+    public static final String RENEW_HEADER = "authorization-renew";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final byte VERSION = 1;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final boolean enabled;
+
+    private final SecretKeySpec key;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RTopic denyTopic;
+
+    // Mac不是线程安全的，每个线程一个
+    private final ThreadLocal<Mac> macs;
+
+    // 本地黑名单：会话id -> token的过期时间
+    private final ConcurrentHashMap<String, Long> denied = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService DENY_LIST_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    public SignedTokenManager(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                              @Value("${hmdp.login.mode:redis}") String mode,
+                              @Value("${hmdp.login.secret:}") String secret) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.denyTopic = redissonClient.getTopic(LOGIN_DENY_KEY, StringCodec.INSTANCE);
+        this.enabled = "stateless".equals(mode);
+        if (enabled && secret.length() < 32) {
+            throw new IllegalStateException("无状态登录需要配置至少32个字符的 hmdp.login.secret");
+        }
+        // 未启用时不会用到密钥
+        this.key = enabled ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM) : null;
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        // 订阅登出通知，消息格式：会话id:过期时间
+        denyTopic.addListener(String.class, (channel, message) -> {
+            int split = message.indexOf(':');
+            denied.put(message.substring(0, split), Long.parseLong(message.substring(split + 1)));
+        });
+        syncDenyList();
+        DENY_LIST_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                syncDenyList();
+            } catch (Exception e) {
+                log.error("同步登录黑名单异常", e);
+            }
+        }, SystemConstants.LOGIN_DENY_SYNC_INTERVAL, SystemConstants.LOGIN_DENY_SYNC_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否是签名token，Redis模式的token是不带"-"的UUID，不含"."
+     */
+    public static boolean isSigned(String token) {
+        return token.indexOf('.') > 0;
+    }
+
+    /**
+     * 登录时签发token
+     */
+    public String issue(UserDTO user) {
+        String sessionId = HexUtil.encodeHexStr(RandomUtil.randomBytes(16));
+        return sign(user, sessionId, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL));
+    }
+
+    /**
+     * 校验token，剩余有效期不足时在响应头中返回续期后的token
+     * @return 登录用户，未启用、签名错误、已过期或已登出时返回null
+     */
+    public UserDTO verify(String token, HttpServletResponse response) {
+        if (!enabled) {
+            return null;
+        }
+        // 1.校验签名并解析
+        Claims claims = parse(token);
+        if (claims == null) {
+            return null;
+        }
+        // 2.是否过期、是否已经登出
+        long now = System.currentTimeMillis();
+        if (claims.expireAt < now || denied.containsKey(claims.sessionId)) {
+            return null;
+        }
+        // 3.滑动续期
+        if (claims.expireAt - now < TimeUnit.MINUTES.toMillis(LOGIN_USER_REFRESH_THRESHOLD)) {
+            response.setHeader(RENEW_HEADER,
+                    sign(claims.user, claims.sessionId, now + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL)));
+        }
+        return claims.user;
+    }
+
+    /**
+     * 登出：会话id加入黑名单，续期得到的新token也一起失效
+     */
+    public void revoke(String token) {
+        if (!enabled) {
+            return;
+        }
+        Claims claims = parse(token);
+        if (claims == null || claims.expireAt < System.currentTimeMillis()) {
+            return;
+        }
+        // 黑名单中最晚的过期时间按可能续期后的时间算
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENY_KEY, claims.sessionId, expireAt);
+        denied.put(claims.sessionId, expireAt);
+        denyTopic.publish(claims.sessionId + ":" + expireAt);
+    }
+
+    /**
+     * 清理已经过期的会话，再从Redis重新加载黑名单
+     */
+    private void syncDenyList() {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_DENY_KEY, 0, now);
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .rangeByScoreWithScores(LOGIN_DENY_KEY, now, Double.MAX_VALUE);
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                denied.put(tuple.getValue(), tuple.getScore().longValue());
+            }
+        }
+        denied.values().removeIf(expireAt -> expireAt < now);
+    }
+
+    private String sign(UserDTO user, String sessionId, long expireAt) {
+        // 1.序列化，字段按固定顺序写入，不使用反射和JSON
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeLong(expireAt);
+            out.writeUTF(sessionId);
+            out.writeLong(user.getId());
+            out.writeUTF(StrUtil.nullToEmpty(user.getNickName()));
+            out.writeUTF(StrUtil.nullToEmpty(user.getIcon()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        // 2.签名
+        String payload = ENCODER.encodeToString(bytes.toByteArray());
+        byte[] signature = macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        return payload + "." + ENCODER.encodeToString(signature);
+    }
+
+    private Claims parse(String token) {
+        int dot = token.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        try {
+            // 1.先校验签名，常量时间比较
+            byte[] expected = macs.get().doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+            if (!MessageDigest.isEqual(expected, DECODER.decode(token.substring(dot + 1)))) {
+                return null;
+            }
+            // 2.签名正确再解析
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(DECODER.decode(payload)))) {
+                if (in.readByte() != VERSION) {
+                    return null;
+                }
+                Claims claims = new Claims();
+                claims.expireAt = in.readLong();
+                claims.sessionId = in.readUTF();
+                UserDTO user = new UserDTO();
+                user.setId(in.readLong());
+                user.setNickName(in.readUTF());
+                user.setIcon(in.readUTF());
+                claims.user = user;
+                return claims;
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            // base64格式错误或内容不完整
+            return null;
+        }
+    }
+
+    private static class Claims {
+        private UserDTO user;
+        private String sessionId;
+        private long expireAt;
+    }
+}
@@ -5,5 +5,61 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 热门博客排行榜：只统计最近多少天发布的博客、最多保留多少篇
+    public static final int BLOG_HOT_WINDOW_DAYS = 30;
+    public static final int BLOG_HOT_MAX_SIZE = 1000;
+    // 热度的时间衰减：每过这么多秒，需要多10倍的互动量才能保持同样的热度
+    public static final long BLOG_HOT_DECAY_SECONDS = 45000L;
+    // 推送笔记到粉丝收件箱：同时进行推送的线程数、每批查询和推送的粉丝数
+    public static final int FEED_FANOUT_CONCURRENCY = 2;
+    public static final int FEED_FANOUT_BATCH_SIZE = 1000;
+    // 粉丝数达到该值的作者发帖时不再推送，只写入自己的发件箱，由粉丝读取时拉取
+    public static final int FEED_BIG_AUTHOR_THRESHOLD = 5000;
+    // 发件箱最多保留的笔记数
+    public static final int FEED_OUTBOX_MAX_SIZE = 1000;
+    // 收件箱最多保留的笔记数
+    public static final int FEED_INBOX_MAX_SIZE = 500;
+    // 超过多少天没有访问关注页的用户，收件箱会被清除，下次访问时再从数据库重建
+    public static final int FEED_INACTIVE_DAYS = 7;
+    // 关注时补充到收件箱的该作者最新笔记数
+    public static final int FEED_BACKFILL_SIZE = 50;
+    // 评论内容的最大长度，与 tb_blog_comments.content 一致
+    public static final int COMMENT_MAX_LENGTH = 255;
+    // 评论列表中每条一级评论附带的回复数，更多的回复需要展开后分页查询
+    public static final int COMMENT_REPLY_PREVIEW_SIZE = 3;
+    // 评论批量写入数据库时每批的最大条数
+    public static final int COMMENT_PERSIST_BATCH_SIZE = 200;
+    // UV统计本地缓冲区最多暂存的访客数，超过后丢弃新的访问（只在Redis长时间不可用时出现）
+    public static final int UV_BUFFER_MAX_SIZE = 100000;
+    // UV合并到周、月时每批处理的页面数
+    public static final int UV_ROLLUP_BATCH_SIZE = 500;
+    // 批量查询是否关注时一次最多的用户数
+    public static final int MAX_FOLLOW_STATE_SIZE = 200;
+    // 博客图片生成的缩略图宽度
+    public static final int[] IMAGE_RENDITION_WIDTHS = {240, 480};
+    // 生成缩略图的线程数、排队的最大任务数
+    public static final int IMAGE_THUMBNAIL_THREADS = 1;
+    public static final int IMAGE_THUMBNAIL_QUEUE_SIZE = 200;
+    // 不支持sendfile时，发送图片的拷贝缓冲区大小（字节）
+    public static final int IMAGE_COPY_BUFFER_SIZE = 32 * 1024;
+    // 内存关注关系图与数据库同步的间隔（分钟）
+    public static final long FOLLOW_GRAPH_SYNC_INTERVAL = 5;
+    // "可能认识的人"一次最多推荐的用户数
+    public static final int MAX_RECOMMEND_SIZE = 50;
+    // 登录token在本地缓存的时间（毫秒），登出通知丢失时token最多在这段时间内仍然有效
+    public static final long LOGIN_TOKEN_LOCAL_TTL = 30000;
+    // 本地缓存的最大token数
+    public static final int LOGIN_TOKEN_CACHE_MAX_SIZE = 100000;
+    // 无状态登录时本地黑名单从Redis重新加载的间隔（秒）
+    public static final long LOGIN_DENY_SYNC_INTERVAL = 60;
+    // 连续签到排行榜一次最多查询的用户数
+    public static final int MAX_SIGN_RANK_SIZE = 100;
+    // Redis中保留最近几个月（含本月）的签到bitmap，更早的归档到 tb_sign；统计连续签到通常只需要本月和上月
+    public static final int SIGN_KEEP_MONTHS = 2;
+    // 连续签到跨过整月时，每次管道往前取的月数
+    public static final int SIGN_STREAK_BATCH_MONTHS = 12;
+    // 归档时每批处理的bitmap数、每条INSERT的最大行数
+    public static final int SIGN_ARCHIVE_BATCH_SIZE = 500;
+    public static final int SIGN_INSERT_BATCH_SIZE = 1000;
 
 }
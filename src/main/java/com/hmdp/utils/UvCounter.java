@@ -0,0 +1,321 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.IsoFields;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 博客、商铺页面的UV统计，基于HyperLogLog
+ *      访问时只写入本地缓冲区（同一个key下的访客id去重），后台线程每隔 UV_FLUSH_INTERVAL 毫秒用管道批量PFADD，
+ *      无论有多少次访问，Redis的调用次数只和刷新周期内被访问的页面数有关
+ *      每天一个key：uv:{type}:{id}:{yyyyMMdd}，过了当天由后台任务PFMERGE合并到周、月的key中
+ *      查询周、月UV时 = PFCOUNT(周/月key + 还没有合并的日key)，HyperLogLog的合并是并集，重复合并也不会多算
+ */
+@Slf4j
+@Component
+public class UvCounter {
+
+    public static final String TYPE_BLOG = "blog";
+    public static final String TYPE_SHOP = "shop";
+
+    public static final String PERIOD_DAY = "day";
+    public static final String PERIOD_WEEK = "week";
+    public static final String PERIOD_MONTH = "month";
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    // 后台合并时补偿最近多少天没有合并的日key（例如服务停机了几天）
+    private static final int ROLLUP_LOOKBACK_DAYS = 7;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    // 日key -> 待写入的访客id；只在compute中修改，刷新时整个remove，保证不会丢失并发写入的访客，写入Redis失败时再合并回来
+    private final ConcurrentHashMap<String, Set<String>> buffer = new ConcurrentHashMap<>();
+
+    // 缓冲区中的访客总数，Redis不可用时超过上限的访问直接丢弃，避免撑爆内存
+    private final AtomicInteger buffered = new AtomicInteger();
+
+    private static final ScheduledExecutorService UV_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
+
+    public UvCounter(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    @PostConstruct
+    private void init() {
+        UV_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("写入UV统计异常", e);
+            }
+        }, UV_FLUSH_INTERVAL, UV_FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+        UV_EXECUTOR.scheduleWithFixedDelay(() -> {
+            try {
+                rollup();
+            } catch (Exception e) {
+                log.error("合并UV统计异常", e);
+            }
+        }, 1, UV_ROLLUP_INTERVAL, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        // 停机前把缓冲区中剩余的访客写入Redis
+        flush();
+    }
+
+    /**
+     * 记录一次访问，只写本地缓冲区
+     * @param type 页面类型，TYPE_BLOG 或 TYPE_SHOP
+     * @param id 博客或商铺的id
+     * @param visitorId 访客标识
+     */
+    public void record(String type, Long id, String visitorId) {
+        if (buffered.get() >= SystemConstants.UV_BUFFER_MAX_SIZE) {
+            return;
+        }
+        String key = dayKey(type + ":" + id, LocalDate.now());
+        buffer.compute(key, (k, visitors) -> {
+            if (visitors == null) {
+                visitors = new HashSet<>();
+            }
+            if (visitors.add(visitorId)) {
+                buffered.incrementAndGet();
+            }
+            return visitors;
+        });
+    }
+
+    /**
+     * 访客标识：登录用户用用户id，未登录的用ip
+     */
+    public static String visitorOf(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        return user != null ? user.getId().toString() : "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * 查询UV
+     * @param period PERIOD_DAY（今天）、PERIOD_WEEK（本周）、PERIOD_MONTH（本月）
+     */
+    public long count(String type, Long id, String period) {
+        String target = type + ":" + id;
+        LocalDate today = LocalDate.now();
+        if (PERIOD_WEEK.equals(period)) {
+            LocalDate monday = today.minusDays(today.getDayOfWeek().getValue() - 1);
+            return countPeriod(weekKey(target, today), target, monday, today);
+        }
+        if (PERIOD_MONTH.equals(period)) {
+            return countPeriod(monthKey(target, today), target, today.withDayOfMonth(1), today);
+        }
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(dayKey(target, today));
+        return count == null ? 0 : count;
+    }
+
+    // PFCOUNT 周/月key + 周期内还没有合并的日key
+    private long countPeriod(String periodKey, String target, LocalDate from, LocalDate to) {
+        // 1.查询周期内每一天是否已经合并
+        List<LocalDate> days = new ArrayList<>();
+        List<String> flagKeys = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            days.add(day);
+            flagKeys.add(UV_ROLLED_KEY + day.format(DAY_FORMATTER));
+        }
+        List<String> flags = stringRedisTemplate.opsForValue().multiGet(flagKeys);
+        // 2.一次PFCOUNT多个key，返回并集的基数
+        List<String> keys = new ArrayList<>();
+        keys.add(periodKey);
+        for (int i = 0; i < days.size(); i++) {
+            if (flags == null || flags.get(i) == null) {
+                keys.add(dayKey(target, days.get(i)));
+            }
+        }
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys.toArray(new String[0]));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 把缓冲区中的访客批量写入Redis
+     *      每个日key一条PFADD，同时记录当天被访问过的页面，供合并任务使用，全部在一个管道中发送
+     */
+    void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        // 1.逐个key取出缓冲区，取出后的集合不会再被修改
+        Map<String, Set<String>> batch = new HashMap<>();
+        for (String key : buffer.keySet()) {
+            Set<String> visitors = buffer.remove(key);
+            if (visitors != null) {
+                batch.put(key, visitors);
+                buffered.addAndGet(-visitors.size());
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        // 2.管道批量写入 PFADD uv:blog:1:20230601 v1 v2 ...
+        long dayTtl = TimeUnit.DAYS.toSeconds(UV_DAY_TTL);
+        long weekTtl = TimeUnit.DAYS.toSeconds(UV_WEEK_TTL);
+        long monthTtl = TimeUnit.DAYS.toSeconds(UV_MONTH_TTL);
+        LocalDate today = LocalDate.now();
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map.Entry<String, Set<String>> entry : batch.entrySet()) {
+                    String key = entry.getKey();
+                    int split = key.lastIndexOf(':');
+                    String target = key.substring(UV_KEY.length(), split);
+                    String date = key.substring(split + 1);
+                    String touchedKey = UV_TOUCHED_KEY + date;
+                    String[] visitors = entry.getValue().toArray(new String[0]);
+                    conn.pfAdd(key, visitors);
+                    conn.expire(key, dayTtl);
+                    conn.sAdd(touchedKey, target);
+                    conn.expire(touchedKey, dayTtl);
+                    LocalDate day = LocalDate.parse(date, DAY_FORMATTER);
+                    if (day.isBefore(today)) {
+                        // 之前的某一天（例如Redis不可用期间积压的访问），这一天可能已经合并过，直接写入周、月的key
+                        String weekKey = weekKey(target, day);
+                        String monthKey = monthKey(target, day);
+                        conn.pfAdd(weekKey, visitors);
+                        conn.expire(weekKey, weekTtl);
+                        conn.pfAdd(monthKey, visitors);
+                        conn.expire(monthKey, monthTtl);
+                    }
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            // 3.写入失败，把这一批放回缓冲区，下次刷新时重试
+            requeue(batch);
+            throw e;
+        }
+    }
+
+    // 把没有写入成功的访客放回缓冲区，和期间新写入的访客合并
+    private void requeue(Map<String, Set<String>> batch) {
+        for (Map.Entry<String, Set<String>> entry : batch.entrySet()) {
+            buffer.compute(entry.getKey(), (k, visitors) -> {
+                if (visitors == null) {
+                    buffered.addAndGet(entry.getValue().size());
+                    return entry.getValue();
+                }
+                for (String visitor : entry.getValue()) {
+                    if (visitors.add(visitor)) {
+                        buffered.incrementAndGet();
+                    }
+                }
+                return visitors;
+            });
+        }
+    }
+
+    /**
+     * 把今天之前的日key合并到周、月的key中
+     *      按天处理：扫描当天被访问过的页面，用管道批量PFMERGE，完成后写入已合并的标记
+     *      过了零点后各实例还会把缓冲区中前一天的访客刷新到日key，所以零点后等待两个刷新周期再合并前一天
+     *      中途宕机重跑也没关系，重复合并的结果不变
+     */
+    private void rollup() {
+        RLock lock = redissonClient.getLock(LOCK_UV_ROLLUP_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 只合并结束时间早于两个刷新周期之前的日期
+            LocalDate today = LocalDateTime.now().minus(Duration.ofMillis(UV_FLUSH_INTERVAL * 2)).toLocalDate();
+            for (int i = ROLLUP_LOOKBACK_DAYS; i >= 1; i--) {
+                LocalDate day = today.minusDays(i);
+                String date = day.format(DAY_FORMATTER);
+                String rolledKey = UV_ROLLED_KEY + date;
+                if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(rolledKey))) {
+                    continue;
+                }
+                rollupDay(day, UV_TOUCHED_KEY + date);
+                stringRedisTemplate.opsForValue().set(rolledKey, "1", UV_DAY_TTL, TimeUnit.DAYS);
+                stringRedisTemplate.delete(UV_TOUCHED_KEY + date);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rollupDay(LocalDate day, String touchedKey) {
+        List<String> targets = new ArrayList<>(SystemConstants.UV_ROLLUP_BATCH_SIZE);
+        // SSCAN 分批取出当天被访问过的页面，避免一次取出过多
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet().scan(touchedKey,
+                ScanOptions.scanOptions().count(SystemConstants.UV_ROLLUP_BATCH_SIZE).build())) {
+            while (cursor.hasNext()) {
+                targets.add(cursor.next());
+                if (targets.size() >= SystemConstants.UV_ROLLUP_BATCH_SIZE) {
+                    mergeDay(day, targets);
+                    targets.clear();
+                }
+            }
+        }
+        if (!targets.isEmpty()) {
+            mergeDay(day, targets);
+        }
+    }
+
+    // 管道批量合并 PFMERGE weekKey weekKey dayKey、PFMERGE monthKey monthKey dayKey
+    private void mergeDay(LocalDate day, List<String> targets) {
+        long weekTtl = TimeUnit.DAYS.toSeconds(UV_WEEK_TTL);
+        long monthTtl = TimeUnit.DAYS.toSeconds(UV_MONTH_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String target : targets) {
+                String dayKey = dayKey(target, day);
+                String weekKey = weekKey(target, day);
+                String monthKey = monthKey(target, day);
+                conn.pfMerge(weekKey, weekKey, dayKey);
+                conn.expire(weekKey, weekTtl);
+                conn.pfMerge(monthKey, monthKey, dayKey);
+                conn.expire(monthKey, monthTtl);
+            }
+            return null;
+        });
+    }
+
+    private static String dayKey(String target, LocalDate day) {
+        return UV_KEY + target + ":" + day.format(DAY_FORMATTER);
+    }
+
+    private static String weekKey(String target, LocalDate day) {
+        return UV_KEY + target + ":w" + day.get(IsoFields.WEEK_BASED_YEAR) + String.format("%02d", day.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+    }
+
+    private static String monthKey(String target, LocalDate day) {
+        return UV_KEY + target + ":m" + day.format(MONTH_FORMATTER);
+    }
+}
@@ -0,0 +1,45 @@
+-- com.hmdp.service.impl.BlogCommentsServiceImpl#saveComment
+-- 1.参数列表
+-- 1.1.所在楼层的评论索引 zset key   一级评论：comments:root:{blogId}  回复：comments:reply:{parentId}
+local indexKey = KEYS[1]
+-- 1.2.评论id计数器 key   comment:id
+local idKey = KEYS[2]
+-- 1.3.评论消息队列 key   stream.comments
+local queueKey = KEYS[3]
+-- 1.4.评论内容
+local blogId = ARGV[1]
+local userId = ARGV[2]
+local parentId = ARGV[3]
+local answerId = ARGV[4]
+local content = ARGV[5]
+local createTime = ARGV[6]
+-- 1.5.评论缓存的key前缀、回复索引的key前缀、评论缓存的有效期（秒）
+local cachePrefix = ARGV[7]
+local replyPrefix = ARGV[8]
+local ttl = ARGV[9]
+-- 1.6.评论索引的有效期（秒），过期后由调用方从数据库和消息队列重建
+local indexTtl = ARGV[10]
+
+-- 2.索引不存在（冷数据或者刚创建的博客），返回0，由调用方从数据库重建索引后重试
+if(redis.call('exists', indexKey) == 0) then
+    return 0
+end
+-- 3.生成评论id，单调递增，同时作为索引中的分数，用于按id做游标分页
+local id = redis.call('incr', idKey)
+-- 4.加入楼层索引 ZADD indexKey id id
+redis.call('zadd', indexKey, id, id)
+redis.call('expire', indexKey, indexTtl)
+-- 5.一级评论：创建它的回复索引，0 是占位成员，表示索引已经建立
+if(parentId == '0') then
+    redis.call('zadd', replyPrefix .. id, 0, 0)
+    redis.call('expire', replyPrefix .. id, indexTtl)
+end
+-- 6.写入评论缓存，数据库写入之前也能直接读到
+redis.call('set', cachePrefix .. id, cjson.encode({
+    id = id, blogId = blogId, userId = userId, parentId = parentId, answerId = answerId,
+    content = content, liked = 0, createTime = tonumber(createTime)
+}), 'EX', ttl)
+-- 7.发送消息到队列中，由后台线程批量写入数据库  XADD stream.comments * k1 v1 k2 v2 ...
+redis.call('xadd', queueKey, '*', 'id', id, 'blogId', blogId, 'userId', userId,
+        'parentId', parentId, 'answerId', answerId, 'content', content, 'createTime', createTime)
+return id
@@ -40,7 +40,9 @@ CREATE TABLE `tb_blog_comments`  (
   `status` tinyint(1) UNSIGNED NULL DEFAULT NULL COMMENT '状态，0：正常，1：被举报，2：禁止查看',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
   `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_blog_parent`(`blog_id`, `parent_id`) USING BTREE,
+  INDEX `idx_parent`(`parent_id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- tb_blog_comments 表数据
@@ -49,6 +51,20 @@ CREATE TABLE `tb_blog_comments`  (
 -- ----------------------------
 
 
+-- tb_blog_like_flush 表结构
+DROP TABLE IF EXISTS `tb_blog_like_flush`;
+CREATE TABLE `tb_blog_like_flush`  (
+  `batch_id` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '点赞增量回写的批次号',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '回写时间',
+  PRIMARY KEY (`batch_id`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci COMMENT = '已回写到tb_blog的点赞增量批次，用于防止重复回写' ROW_FORMAT = Compact;
+
+-- tb_blog_like_flush 表数据
+
+
+-- ----------------------------
+
+
 -- tb_follow 表结构
 DROP TABLE IF EXISTS `tb_follow`;
 CREATE TABLE `tb_follow`  (
@@ -56,7 +72,9 @@ CREATE TABLE `tb_follow`  (
   `user_id` bigint(20) UNSIGNED NOT NULL COMMENT '用户id',
   `follow_user_id` bigint(20) UNSIGNED NOT NULL COMMENT '关联的用户id',
   `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_follow`(`user_id`, `follow_user_id`) USING BTREE,
+  INDEX `idx_follow_user`(`follow_user_id`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- tb_follow 表数据
@@ -161,7 +179,8 @@ CREATE TABLE `tb_sign`  (
   `month` tinyint(2) NOT NULL COMMENT '签到的月',
   `date` date NOT NULL COMMENT '签到的日期',
   `is_backup` tinyint(1) UNSIGNED NULL DEFAULT NULL COMMENT '是否补签',
-  PRIMARY KEY (`id`) USING BTREE
+  PRIMARY KEY (`id`) USING BTREE,
+  UNIQUE INDEX `uk_user_date`(`user_id`, `date`) USING BTREE
 ) ENGINE = InnoDB AUTO_INCREMENT = 1 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
 
 -- tb_sign 表数据
@@ -1214,6 +1233,12 @@ CREATE TABLE `tb_user_info`  (
 
 -- tb_user_info 表数据
 
+-- 已有关注数据时，按 tb_follow 初始化粉丝数、关注数（之后由关注、取关维护）
+-- INSERT INTO tb_user_info (user_id, fans) SELECT follow_user_id, COUNT(*) FROM tb_follow GROUP BY follow_user_id
+--     ON DUPLICATE KEY UPDATE fans = VALUES(fans);
+-- INSERT INTO tb_user_info (user_id, followee) SELECT user_id, COUNT(*) FROM tb_follow GROUP BY user_id
+--     ON DUPLICATE KEY UPDATE followee = VALUES(followee);
+
 
 -- ----------------------------
 
@@ -0,0 +1,13 @@
+-- com.hmdp.service.impl.BlogServiceImpl.FeedFanoutHandler#fanout
+-- 从指定的游标继续扫描粉丝集合，返回 {下一个游标, 本批粉丝}
+-- RedisTemplate 的 Cursor 只能从头开始扫描，推送中断后需要从记录的游标继续，所以在脚本中执行 SSCAN
+-- 1.参数列表
+-- 1.1.粉丝集合 key   fans:{authorId}
+local fansKey = KEYS[1]
+-- 1.2.游标
+local cursor = ARGV[1]
+-- 1.3.每批数量
+local count = ARGV[2]
+
+-- 2.SSCAN fansKey cursor COUNT count
+return redis.call('sscan', fansKey, cursor, 'COUNT', count)
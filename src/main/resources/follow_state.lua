@@ -0,0 +1,16 @@
+-- com.hmdp.service.impl.FollowServiceImpl#queryFollowStates
+-- 1.参数列表
+-- 1.1.关注集合 key   follows:{userId}
+local key = KEYS[1]
+-- 1.2.ARGV 为需要判断的用户id列表
+
+-- 2.集合中没有占位成员 0，说明还没有从数据库完整加载（可能不存在，也可能只有加载之前关注的几个用户），返回nil
+if(redis.call('sismember', key, '0') == 0) then
+    return nil
+end
+-- 3.逐个判断是否关注 SISMEMBER key id，返回 {1, 0, ...}
+local result = {}
+for i, id in ipairs(ARGV) do
+    result[i] = redis.call('sismember', key, id)
+end
+return result
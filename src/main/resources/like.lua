@@ -0,0 +1,42 @@
+-- com.hmdp.service.impl.BlogServiceImpl#likeBlog
+-- 1.参数列表
+-- 1.1.点赞用户的zset key   blog:liked:{blogId}
+local likedKey = KEYS[1]
+-- 1.2.点赞数计数器 key     blog:like:count:{blogId}
+local countKey = KEYS[2]
+-- 1.3.待回写的点赞增量 hash key
+local deltaKey = KEYS[3]
+-- 1.4.正在回写的点赞增量 hash key（like_flush.lua 改名后的批次，回写完成后删除）
+local flushingKey = KEYS[4]
+-- 1.5.博客id
+local blogId = ARGV[1]
+-- 1.6.用户id
+local userId = ARGV[2]
+-- 1.7.点赞时间
+local now = ARGV[3]
+-- 1.8.数据库中的点赞数，计数器不存在时用来初始化；为空串表示调用方还没有查询数据库
+local dbLiked = ARGV[4]
+
+-- 2.计数器不存在时，用数据库中的点赞数加上还没有回写的增量初始化，包括正在回写、还没有写入数据库的批次
+--   不能用点赞集合的大小：种子数据、集合丢失的博客，集合里的人数和数据库中的点赞数不一致
+if(redis.call('exists', countKey) == 0) then
+    if(dbLiked == nil or dbLiked == '') then
+        -- 2.1.调用方还没有查询数据库，返回 {-1} 让调用方查询后重试
+        return {-1}
+    end
+    local pending = tonumber(redis.call('hget', deltaKey, blogId) or '0')
+            + tonumber(redis.call('hget', flushingKey, blogId) or '0')
+    redis.call('set', countKey, tonumber(dbLiked) + pending, 'NX')
+end
+
+-- 3.判断是否已经点赞 ZSCORE likedKey userId
+if(redis.call('zscore', likedKey, userId) == false) then
+    -- 3.1.未点赞：zadd + 计数器+1 + 增量+1，返回 {1, 点赞数}
+    redis.call('zadd', likedKey, now, userId)
+    redis.call('hincrby', deltaKey, blogId, 1)
+    return {1, redis.call('incrby', countKey, 1)}
+end
+-- 3.2.已点赞：zrem + 计数器-1 + 增量-1，返回 {0, 点赞数}
+redis.call('zrem', likedKey, userId)
+redis.call('hincrby', deltaKey, blogId, -1)
+return {0, redis.call('incrby', countKey, -1)}
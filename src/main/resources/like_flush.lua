@@ -0,0 +1,22 @@
+-- com.hmdp.service.impl.BlogServiceImpl#flushLikeDelta
+-- 1.参数列表
+-- 1.1.点赞增量的hash key
+local deltaKey = KEYS[1]
+-- 1.2.正在回写的hash key
+local flushingKey = KEYS[2]
+-- 1.3.新的批次号
+local batchId = ARGV[1]
+
+-- 2.上一批还没回写完（例如回写过程中宕机），先继续回写上一批，返回1
+if(redis.call('exists', flushingKey) == 1) then
+    return 1
+end
+-- 3.没有新的增量，返回0
+if(redis.call('exists', deltaKey) == 0) then
+    return 0
+end
+-- 4.把当前的增量整体改名为回写中的批次，之后新的点赞会累加到新的deltaKey上，互不影响
+redis.call('rename', deltaKey, flushingKey)
+-- 5.把批次号一起写入，保证改名和批次号是原子的
+redis.call('hset', flushingKey, '_batch', batchId)
+return 1
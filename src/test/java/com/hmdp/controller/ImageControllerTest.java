@@ -0,0 +1,44 @@
+package com.hmdp.controller;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageControllerTest {
+
+    @Test
+    void parseRange() {
+        assertArrayEquals(new long[]{0, 99}, ImageController.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[]{100, 999}, ImageController.parseRange("bytes=100-", 1000));
+        assertArrayEquals(new long[]{900, 999}, ImageController.parseRange("bytes=-100", 1000));
+        // 结束位置超出文件长度时截断
+        assertArrayEquals(new long[]{500, 999}, ImageController.parseRange("bytes=500-5000", 1000));
+        assertArrayEquals(new long[]{0, 999}, ImageController.parseRange("bytes=-5000", 1000));
+    }
+
+    @Test
+    void parseRangeUnsatisfiable() {
+        assertEquals(0, ImageController.parseRange("bytes=1000-", 1000).length);
+        assertEquals(0, ImageController.parseRange("bytes=50-10", 1000).length);
+        assertEquals(0, ImageController.parseRange("bytes=-0", 1000).length);
+    }
+
+    @Test
+    void parseRangeUnsupported() {
+        // 不支持的格式按完整文件返回
+        assertNull(ImageController.parseRange("bytes=0-1,5-6", 1000));
+        assertNull(ImageController.parseRange("items=0-1", 1000));
+        assertNull(ImageController.parseRange("bytes=abc", 1000));
+        assertNull(ImageController.parseRange("bytes=a-b", 1000));
+    }
+
+    @Test
+    void matchesAny() {
+        String etag = "\"abc\"";
+        assertTrue(ImageController.matchesAny("\"abc\"", etag));
+        assertTrue(ImageController.matchesAny("\"x\", W/\"abc\"", etag));
+        assertTrue(ImageController.matchesAny("*", etag));
+        assertFalse(ImageController.matchesAny("\"x\"", etag));
+        assertFalse(ImageController.matchesAny(null, etag));
+    }
+}
@@ -0,0 +1,72 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * BeanUtil 与 BeanConverter 的耗时、内存分配对比，默认不执行
+ *      mvn test -Dtest=BeanConverterBenchmarkTest -Dbenchmark=true
+ *      每项先预热，再执行 ITERATIONS 次，耗时取平均值，分配量由 ThreadMXBean 统计当前线程分配的字节数（HotSpot）
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class BeanConverterBenchmarkTest {
+
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    // 防止结果被JIT优化掉
+    private static int sink;
+
+    @Test
+    void benchmark() {
+        User user = new User();
+        user.setId(1L);
+        user.setPhone("13686869696");
+        user.setNickName("小鱼同学");
+        user.setIcon("/imgs/icons/user1.jpg");
+        UserDTO userDTO = BeanConverterTest.userDTO();
+        Map<Object, Object> userMap = new HashMap<>(BeanConverter.toMap(userDTO));
+        Map<Object, Object> orderMap = new HashMap<>();
+        orderMap.put("id", "1000000001");
+        orderMap.put("userId", "1010");
+        orderMap.put("voucherId", "7");
+
+        System.out.printf("%-32s %12s %12s%n", "", "ns/op", "bytes/op");
+        run("copyProperties User->UserDTO", () -> BeanUtil.copyProperties(user, UserDTO.class));
+        run("toUserDTO(User)", () -> BeanConverter.toUserDTO(user));
+        run("beanToMap UserDTO", () -> BeanUtil.beanToMap(userDTO, new HashMap<>(),
+                CopyOptions.create().setIgnoreNullValue(true)
+                        .setFieldValueEditor((name, value) -> value == null ? null : value.toString())));
+        run("toMap(UserDTO)", () -> BeanConverter.toMap(userDTO));
+        run("fillBeanWithMap -> UserDTO", () -> BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false));
+        run("toUserDTO(Map)", () -> BeanConverter.toUserDTO(userMap));
+        run("fillBeanWithMap -> VoucherOrder", () -> BeanUtil.fillBeanWithMap(orderMap, new VoucherOrder(), true));
+        run("toVoucherOrder(Map)", () -> BeanConverter.toVoucherOrder(orderMap));
+    }
+
+    private static void run(String name, Supplier<Object> task) {
+        for (int i = 0; i < WARMUP; i++) {
+            sink += task.get().hashCode();
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += task.get().hashCode();
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+        System.out.printf("%-32s %12d %12d%n", name, nanos / ITERATIONS, bytes / ITERATIONS);
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * BeanConverter 的结果与原来的 BeanUtil 转换一致
+ */
+class BeanConverterTest {
+
+    @Test
+    void userToUserDTO() {
+        User user = new User();
+        user.setId(1L);
+        user.setPhone("13686869696");
+        user.setNickName("小鱼同学");
+        user.setIcon("/imgs/icons/user1.jpg");
+        assertEquals(BeanUtil.copyProperties(user, UserDTO.class), BeanConverter.toUserDTO(user));
+    }
+
+    @Test
+    void userDTOToMap() {
+        UserDTO userDTO = userDTO();
+        Map<String, Object> expected = BeanUtil.beanToMap(userDTO, new HashMap<>(),
+                CopyOptions.create().setIgnoreNullValue(true)
+                        .setFieldValueEditor((name, value) -> value == null ? null : value.toString()));
+        assertEquals(expected, new HashMap<String, Object>(BeanConverter.toMap(userDTO)));
+
+        // null字段不写入
+        userDTO.setIcon(null);
+        assertFalse(BeanConverter.toMap(userDTO).containsKey("icon"));
+    }
+
+    @Test
+    void mapToUserDTO() {
+        UserDTO userDTO = userDTO();
+        Map<Object, Object> map = new HashMap<>(BeanConverter.toMap(userDTO));
+        assertEquals(BeanUtil.fillBeanWithMap(map, new UserDTO(), false), BeanConverter.toUserDTO(map));
+        assertEquals(userDTO, BeanConverter.toUserDTO(map));
+    }
+
+    @Test
+    void mapToVoucherOrder() {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("id", "1000000001");
+        map.put("userId", "1010");
+        map.put("voucherId", "7");
+        VoucherOrder expected = BeanUtil.fillBeanWithMap(map, new VoucherOrder(), true);
+        assertEquals(expected, BeanConverter.toVoucherOrder(map));
+    }
+
+    static UserDTO userDTO() {
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(1010L);
+        userDTO.setNickName("user_abcdefghij");
+        userDTO.setIcon("/imgs/icons/user1.jpg");
+        return userDTO;
+    }
+}
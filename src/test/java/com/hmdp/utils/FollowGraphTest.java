@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.FollowMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class FollowGraphTest {
+
+    @TempDir
+    Path dir;
+
+    private FollowMapper followMapper;
+    private Path snapshot;
+    private FollowGraph graph;
+
+    @BeforeEach
+    void setUp() {
+        followMapper = mock(FollowMapper.class);
+        when(followMapper.selectList(any())).thenReturn(Collections.emptyList());
+        snapshot = dir.resolve("follow-graph.bin");
+        graph = new FollowGraph(followMapper, snapshot.toString());
+    }
+
+    @Test
+    void commonFollowsAndUnfollow() {
+        graph.follow(1L, 10L);
+        graph.follow(1L, 11L);
+        graph.follow(1L, 12L);
+        graph.follow(2L, 11L);
+        graph.follow(2L, 12L);
+        graph.follow(2L, 13L);
+        assertEquals(Arrays.asList(11L, 12L), graph.commonFollows(1L, 2L));
+
+        graph.unfollow(2L, 11L);
+        assertEquals(Collections.singletonList(12L), graph.commonFollows(1L, 2L));
+        assertTrue(graph.commonFollows(1L, 99L).isEmpty());
+    }
+
+    @Test
+    void recommendRanksBySharedFollowees() {
+        // 1 关注了 2、3；2、3 都关注了 4，只有 3 关注了 5；4 是 1 已经关注的人关注得最多的
+        graph.follow(1L, 2L);
+        graph.follow(1L, 3L);
+        graph.follow(2L, 4L);
+        graph.follow(3L, 4L);
+        graph.follow(3L, 5L);
+        graph.follow(3L, 1L);
+        assertEquals(Arrays.asList(4L, 5L), graph.recommend(1L, 10));
+        assertEquals(Collections.singletonList(4L), graph.recommend(1L, 1));
+        assertTrue(graph.recommend(99L, 10).isEmpty());
+    }
+
+    @Test
+    void syncRebuildsOnlyAfterRepeatedMismatch() {
+        when(followMapper.selectCount(any())).thenReturn(0);
+        graph.follow(1L, 2L);
+        // 第一次不一致可能只是还没有修改关系图的提交，不重建
+        graph.sync();
+        assertEquals(Collections.singletonList(2L), graph.commonFollows(1L, 1L));
+        // 连续两次不一致，从数据库重建（数据库中没有关注）
+        graph.sync();
+        assertTrue(graph.commonFollows(1L, 1L).isEmpty());
+    }
+
+    @Test
+    void snapshotOnlyRewrittenWhenChanged() throws Exception {
+        when(followMapper.selectCount(any())).thenReturn(1);
+        graph.follow(1L, 2L);
+        graph.sync();
+        assertTrue(Files.exists(snapshot));
+        // 没有变化时不重写
+        Files.delete(snapshot);
+        graph.sync();
+        assertFalse(Files.exists(snapshot));
+        // 有变化时重写
+        graph.follow(1L, 3L);
+        when(followMapper.selectCount(any())).thenReturn(2);
+        graph.sync();
+        assertTrue(Files.exists(snapshot));
+    }
+
+    @Test
+    void snapshotRoundTripIncludesDelta() {
+        when(followMapper.selectCount(any())).thenReturn(3);
+        graph.follow(1L, 10L);
+        graph.follow(1L, 11L);
+        graph.follow(2L, 11L);
+        // 增量中的关注也要写进快照
+        graph.sync();
+
+        FollowGraph loaded = new FollowGraph(followMapper, snapshot.toString());
+        assertTrue(loaded.loadSnapshot());
+        assertEquals(Collections.singletonList(11L), loaded.commonFollows(1L, 2L));
+        assertEquals(Arrays.asList(10L, 11L), loaded.commonFollows(1L, 1L));
+        // 快照之后的关注和取关照常生效
+        loaded.follow(2L, 10L);
+        loaded.unfollow(1L, 11L);
+        assertEquals(Collections.singletonList(10L), loaded.commonFollows(1L, 2L));
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShopFacetIndexTest {
+
+    // 时段序号：HH:mm 所在的半小时
+    private static int slot(String hhmm) {
+        LocalTime t = LocalTime.parse(hhmm);
+        return (t.getHour() * 60 + t.getMinute()) / 30;
+    }
+
+    @Test
+    void parseSingleRange() {
+        BitSet slots = ShopFacetIndex.parseOpenHours("10:00-22:00");
+        assertEquals(24, slots.cardinality());
+        assertTrue(slots.get(slot("10:00")));
+        assertTrue(slots.get(slot("21:59")));
+        assertFalse(slots.get(slot("09:59")));
+        assertFalse(slots.get(slot("22:00")));
+    }
+
+    @Test
+    void parseSplitRanges() {
+        // 种子数据中的分段营业时间
+        BitSet slots = ShopFacetIndex.parseOpenHours("11:00-13:50,17:00-20:50");
+        assertTrue(slots.get(slot("11:00")));
+        assertTrue(slots.get(slot("13:40")));
+        assertFalse(slots.get(slot("15:00")));
+        assertTrue(slots.get(slot("17:00")));
+        assertTrue(slots.get(slot("20:40")));
+        assertFalse(slots.get(slot("21:00")));
+        assertEquals(6 + 8, slots.cardinality());
+    }
+
+    @Test
+    void parseOvernightRange() {
+        BitSet slots = ShopFacetIndex.parseOpenHours("11:30-03:00");
+        assertTrue(slots.get(slot("23:30")));
+        assertTrue(slots.get(slot("00:00")));
+        assertTrue(slots.get(slot("02:30")));
+        assertFalse(slots.get(slot("03:00")));
+        assertFalse(slots.get(slot("11:00")));
+        assertTrue(slots.get(slot("11:30")));
+    }
+
+    @Test
+    void parseAllDay() {
+        assertEquals(48, ShopFacetIndex.parseOpenHours("00:00-24:00").cardinality());
+    }
+
+    @Test
+    void parseMalformed() {
+        assertTrue(ShopFacetIndex.parseOpenHours(null).isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours(" ").isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours("10:00").isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours("10:00-22:00-23:00").isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours("10:00-24:30").isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours("25:00-22:00").isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours("10:60-22:00").isEmpty());
+        assertTrue(ShopFacetIndex.parseOpenHours("ab:cd-22:00").isEmpty());
+        // 任意一段错误都按解析失败处理
+        assertTrue(ShopFacetIndex.parseOpenHours("11:00-13:50,17:00").isEmpty());
+    }
+
+    @Test
+    void queryIntersectsFacets() {
+        ShopFacetIndex index = new ShopFacetIndex(null);
+        index.upsert(shop(1L, 1L, "大关", 80L, 47, "10:00-22:00"));
+        index.upsert(shop(2L, 1L, "大关", 300L, 45, "11:00-13:50,17:00-20:50"));
+        index.upsert(shop(3L, 2L, "大关", 90L, 41, "11:30-03:00"));
+        index.upsert(shop(4L, 1L, "拱宸桥", 60L, 48, "00:00-24:00"));
+
+        assertEquals(Arrays.asList(1L, 2L, 4L), index.query(filters("type", "1"), null));
+        assertEquals(Arrays.asList(1L, 2L), index.query(filters("type", "1", "area", "大关"), null));
+        assertEquals(Collections.singletonList(1L),
+                index.query(filters("type", "1", "area", "大关", "price", "1"), null));
+        assertTrue(index.query(filters("type", "9"), null).isEmpty());
+
+        // 营业中：15:00 分段营业的2号店休息，凌晨只有跨天和24小时营业的店
+        assertEquals(Arrays.asList(1L, 4L), index.query(filters("type", "1"), LocalTime.of(15, 0)));
+        assertEquals(Arrays.asList(1L, 2L, 4L), index.query(filters("type", "1"), LocalTime.of(18, 0)));
+        assertEquals(Arrays.asList(3L, 4L), index.query(Collections.emptyMap(), LocalTime.of(1, 0)));
+
+        // 更新后旧的位被清除，删除后不再出现
+        index.upsert(shop(1L, 2L, "大关", 80L, 47, "10:00-22:00"));
+        assertEquals(Arrays.asList(2L, 4L), index.query(filters("type", "1"), null));
+        index.remove(4L);
+        assertEquals(Collections.singletonList(2L), index.query(filters("type", "1"), null));
+    }
+
+    @Test
+    void countExcludesOwnFacet() {
+        ShopFacetIndex index = new ShopFacetIndex(null);
+        index.upsert(shop(1L, 1L, "大关", 80L, 47, "10:00-22:00"));
+        index.upsert(shop(2L, 1L, "拱宸桥", 300L, 45, "10:00-22:00"));
+        index.upsert(shop(3L, 2L, "大关", 90L, 41, "10:00-22:00"));
+
+        Map<String, Map<String, Integer>> counts = index.count(filters("type", "1"), null);
+        // 类型维度不带自身条件
+        assertEquals(2, counts.get("type").get("1"));
+        assertEquals(1, counts.get("type").get("2"));
+        assertEquals(1, counts.get("area").get("大关"));
+        assertEquals(1, counts.get("area").get("拱宸桥"));
+    }
+
+    private static Shop shop(Long id, Long typeId, String area, Long avgPrice, Integer score, String openHours) {
+        return new Shop().setId(id).setTypeId(typeId).setArea(area).setAvgPrice(avgPrice)
+                .setScore(score).setOpenHours(openHours);
+    }
+
+    private static Map<String, String> filters(String... kv) {
+        Map<String, String> filters = new HashMap<>();
+        for (int i = 0; i < kv.length; i += 2) {
+            filters.put(kv[i], kv[i + 1]);
+        }
+        return filters;
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignBitmapsTest {
+
+    // 按逐天SETBIT的方式构造bitmap：第d天是第d-1位，从第一个字节的最高位开始
+    private static byte[] setBits(int... days) {
+        byte[] bitmap = new byte[4];
+        for (int day : days) {
+            int offset = day - 1;
+            bitmap[offset / 8] |= (byte) (0x80 >>> (offset % 8));
+        }
+        return bitmap;
+    }
+
+    private static int bits(int... days) {
+        return SignBitmaps.toBits(setBits(days));
+    }
+
+    @Test
+    void toBitsMatchesSetBit() {
+        assertEquals(0, SignBitmaps.toBits(null));
+        assertEquals(0, SignBitmaps.toBits(new byte[0]));
+        // Redis中只SETBIT过前几天时，GET返回的字节数少于4
+        assertEquals(SignBitmaps.bitOf(1) | SignBitmaps.bitOf(3), SignBitmaps.toBits(new byte[]{(byte) 0xA0}));
+        for (int day = 1; day <= 31; day++) {
+            assertEquals(SignBitmaps.bitOf(day), bits(day));
+            assertTrue(SignBitmaps.isSigned(bits(day), day));
+        }
+        int bits = bits(1, 2, 15, 31);
+        assertArrayEquals(setBits(1, 2, 15, 31), SignBitmaps.toBitmap(bits));
+    }
+
+    @Test
+    void streakEndingAt() {
+        int bits = bits(1, 2, 3, 5, 6, 7, 8);
+        assertEquals(4, SignBitmaps.streakEndingAt(bits, 8));
+        assertEquals(3, SignBitmaps.streakEndingAt(bits, 7));
+        assertEquals(0, SignBitmaps.streakEndingAt(bits, 4));
+        assertEquals(3, SignBitmaps.streakEndingAt(bits, 3));
+        assertEquals(0, SignBitmaps.streakEndingAt(bits, 0));
+        assertEquals(31, SignBitmaps.streakEndingAt(-1, 31));
+    }
+
+    @Test
+    void countAndLongestStreak() {
+        int bits = bits(1, 2, 3, 5, 6, 7, 8, 20);
+        assertEquals(3, SignBitmaps.count(bits, 4));
+        assertEquals(8, SignBitmaps.count(bits, 31));
+        assertEquals(0, SignBitmaps.count(bits, 0));
+        assertEquals(4, SignBitmaps.longestStreak(bits));
+        assertEquals(0, SignBitmaps.longestStreak(0));
+        assertEquals(31, SignBitmaps.longestStreak(bits(
+                1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+                17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31)));
+    }
+
+    @Test
+    void days() {
+        assertEquals(Arrays.asList(1, 5, 31), SignBitmaps.days(bits(1, 5, 31)));
+        assertEquals(Collections.emptyList(), SignBitmaps.days(0));
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SignedTokenManagerTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+    private StringRedisTemplate template;
+    private RedissonClient redissonClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        template = mock(StringRedisTemplate.class);
+        when(template.opsForZSet()).thenReturn(mock(ZSetOperations.class));
+        redissonClient = mock(RedissonClient.class);
+        when(redissonClient.getTopic(anyString(), any())).thenReturn(mock(RTopic.class));
+    }
+
+    private SignedTokenManager manager(String mode, String secret) {
+        return new SignedTokenManager(template, redissonClient, mode, secret);
+    }
+
+    @Test
+    void issueAndVerify() {
+        SignedTokenManager manager = manager("stateless", SECRET);
+        String token = manager.issue(user());
+        assertTrue(SignedTokenManager.isSigned(token));
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        assertEquals(user(), manager.verify(token, response));
+        // 刚签发的token不需要续期
+        assertNull(response.getHeader(SignedTokenManager.RENEW_HEADER));
+    }
+
+    @Test
+    void rejectsTamperedOrForeignTokens() {
+        SignedTokenManager manager = manager("stateless", SECRET);
+        String token = manager.issue(user());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        // 修改载荷
+        char c = token.charAt(5);
+        String tampered = token.substring(0, 5) + (c == 'A' ? 'B' : 'A') + token.substring(6);
+        assertNull(manager.verify(tampered, response));
+        // 其他密钥签发的token
+        String foreign = manager("stateless", SECRET.replace('0', 'x')).issue(user());
+        assertNull(manager.verify(foreign, response));
+        // 格式错误
+        assertNull(manager.verify("abc.def", response));
+        assertNull(manager.verify("no-dot", response));
+    }
+
+    @Test
+    void revokedTokenIsDenied() {
+        SignedTokenManager manager = manager("stateless", SECRET);
+        String token = manager.issue(user());
+        manager.revoke(token);
+        assertNull(manager.verify(token, new MockHttpServletResponse()));
+    }
+
+    @Test
+    void disabledMode() {
+        SignedTokenManager manager = manager("redis", "");
+        assertFalse(manager.isEnabled());
+        assertNull(manager.verify("a.b", new MockHttpServletResponse()));
+        // 未启用时登出什么都不做
+        manager.revoke("a.b");
+        verifyNoInteractions(template);
+    }
+
+    @Test
+    void shortSecretRejected() {
+        assertThrows(IllegalStateException.class, () -> manager("stateless", "short"));
+    }
+
+    private static UserDTO user() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("小鱼同学");
+        user.setIcon("/imgs/icons/user1.jpg");
+        return user;
+    }
+}
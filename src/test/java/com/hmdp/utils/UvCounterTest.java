@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class UvCounterTest {
+
+    @Test
+    void flushRequeuesBatchWhenRedisFails() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        when(template.executePipelined(any(RedisCallback.class)))
+                .thenThrow(new RedisConnectionFailureException("down"))
+                .thenReturn(Collections.emptyList());
+        UvCounter counter = new UvCounter(template, null);
+        counter.record(UvCounter.TYPE_BLOG, 1L, "1");
+        counter.record(UvCounter.TYPE_BLOG, 1L, "2");
+
+        // 第一次写入失败，访客放回缓冲区
+        assertThrows(RedisConnectionFailureException.class, counter::flush);
+        // 第二次重新写入，成功后缓冲区清空，第三次不再访问Redis
+        counter.flush();
+        counter.flush();
+        verify(template, times(2)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void flushSkipsWhenBufferEmpty() {
+        StringRedisTemplate template = mock(StringRedisTemplate.class);
+        UvCounter counter = new UvCounter(template, null);
+        counter.flush();
+        verify(template, never()).executePipelined(any(RedisCallback.class));
+    }
+}